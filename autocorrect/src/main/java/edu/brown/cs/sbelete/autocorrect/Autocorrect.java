@@ -1,67 +1,104 @@
 package edu.brown.cs.sbelete.autocorrect;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
+import java.util.Deque;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
-import java.util.Map.Entry;
-import java.util.stream.Stream;
-
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+/**
+ * Suggests corrections and completions for words, ranked with the counts of
+ * a corpus.
+ *
+ * <p>
+ * The words and counts built don't change, so any number of threads can
+ * query an Autocorrect at once. Each query reads its settings from an
+ * {@link Options} given to it, or from a snapshot of the default options.
+ * The engine, deletion index and minimization are chosen before the
+ * Autocorrect is shared, and words are removed or compacted only while no
+ * query runs. Removed words keep their counts but are never suggested.
+ *
+ * <p>
+ * Words accepted by users can be learned while queries run. They are
+ * gathered in batches, and each batch is merged into a new snapshot of the
+ * counts learned, which queries read alongside those built. Writers never
+ * block queries, and each query sees one snapshot throughout.
+ *
+ * <p>
+ * The results of top-k queries can be kept, so that the prefixes typed most
+ * often are answered without a search. A result kept is only used while
+ * nothing has been learned or removed since it was found.
+ *
+ * @author Simon
+ */
 public class Autocorrect extends Trie {
 
-	private static int led = 0; // Default LED
-	private boolean useSmart = false;
-	private boolean useWhitespace = false;
-	private boolean useAutocomplete = false;
-	private static Map<String, Gram> frequency = new HashMap<>();
-
-	private class Gram {
-		private Map<String, Integer> coupled = new HashMap<>();
-		private int times;
-
-		public Gram() {
-			times = 1;
-		}
-
-		public void inc() {
-			times++;
-		}
+	private final AtomicReference<Options> options = new AtomicReference<>(
+			Options.DEFAULT);
+	private Engine engine = Engine.DP;
+	private DeletionIndex index;
+	private final Counts counts;
+	private final AtomicReference<Learned> learned = new AtomicReference<>(
+			Learned.NONE);
+	// Sequences learned since the last flush, each after the word before it
+	// (null if none), guarded by itself
+	private final List<List<String>> pending = new ArrayList<>();
+	private int pendingWords = 0;
+	// Results of top-k queries (null if none are kept)
+	private volatile Cache<Query, List<String>> cache;
+	// Pool the DP walks are split across (null if none), and the least cost
+	// of a walk that is
+	private ForkJoinPool ledPool;
+	private long ledThreshold;
 
-		public void next(String after) {
-			Integer num = coupled.get(after);
-			if (num != null) {
-				coupled.put(after, num + 1);
-			} else {
-				coupled.put(after, 1);
-			}
-		}
-
-		@SuppressWarnings("unused")
-		public Set<String> getFreq(int i) {
-			Map<String, Integer> result = new LinkedHashMap<>();
-			Stream<Map.Entry<String, Integer>> st = coupled.entrySet().stream();
+	/**
+	 * Number of words learned after which they are merged without waiting
+	 * for a flush.
+	 */
+	public static final int BATCH = 1024;
 
-			st.sorted(Map.Entry.comparingByValue()).forEachOrdered(
-					e -> result.put(e.getKey(), e.getValue()));
+	/**
+	 * Number of segmentations suggested by queries that don't ask for k
+	 * suggestions.
+	 */
+	public static final int SEGMENTATIONS = 5;
 
-			return result.keySet();
-		}
+	/**
+	 * Default least cost of a DP walk split across a pool, as the number of
+	 * words times the square of the LED. The nodes a walk visits grow far
+	 * faster with the LED than with the length of the query.
+	 */
+	public static final long PARALLEL_THRESHOLD = 250000;
 
-		public int getFreq(String s) {
-			Integer i = coupled.get(s);
-			if (i != null) {
-				return i;
-			}
-			return 0;
-		}
+	// Depth of the subtrees a split walk hands to the pool
+	private static final int FAN_OUT = 2;
 
+	/**
+	 * Ways of finding the words within LED of a query.
+	 */
+	public enum Engine {
+		/** One edit distance row per trie node. */
+		DP,
+		/** Levenshtein automaton intersected with the trie. */
+		AUTOMATON,
+		/** Precomputed deletions, see {@link DeletionIndex}. */
+		DELETION_INDEX
 	}
 
 	/**
@@ -71,73 +108,165 @@ public class Autocorrect extends Trie {
 	 *            - a collection of words to be saved
 	 */
 	public Autocorrect(Collection<String> words) {
-		super(words);
-		Gram temp;
-		Gram prev = null;
-		for (String w : words) {
-			temp = frequency.get(w);
-			if (temp != null) {
-				temp.inc();
-			} else {
-				temp = frequency.put(w, new Gram());
-			}
+		this(words, Layout.HASH);
+	}
 
-			if (prev != null) {
-				prev.next(w);
-			}
-			prev = temp;
+	/**
+	 * Constructor for Autocorrect with a chosen trie node layout.
+	 *
+	 * @param words
+	 *            - a collection of words to be saved
+	 * @param layout
+	 *            - how the trie stores the children of each node
+	 */
+	public Autocorrect(Collection<String> words, Layout layout) {
+		super(words, layout);
+		GramCounter counter = new GramCounter(2);
+		int[] history = counter.start();
+		for (String w : words) {
+			counter.add(w, history);
 		}
+		counts = counter.table(1);
+
+		annotate(counts::unigram);
 	}
 
-	private class Frequency implements Comparator<String> {
-		private String prev;
-		private String current;
+	/**
+	 * Constructor for Autocorrect around counts already made, such as by a
+	 * {@link CorpusReader}. The words are those counted.
+	 *
+	 * @param table
+	 *            - the counts of every word, kept by the Autocorrect
+	 * @param layout
+	 *            - how the trie stores the children of each node
+	 */
+	Autocorrect(GramTable table, Layout layout) {
+		super(table.words(), layout);
+		counts = table;
 
-		public Frequency(String current, String prev) {
-			this.prev = prev;
-			this.current = current;
-		}
+		annotate(counts::unigram);
+	}
 
-		@Override
-		public int compare(String w1, String w2) {
-			// less = negative
-			String o1 = w1.split(" ")[0];
-			String o2 = w2.split(" ")[0];
-			if (o1.equals(current)) {
-				return -1;
-			}
-			if (o2.equals(current)) {
-				return 1;
-			}
+	/**
+	 * Constructor for Autocorrect around a read-only trie with its counts,
+	 * such as a compiled dictionary file.
+	 *
+	 * @param base
+	 *            - root of the trie
+	 * @param size
+	 *            - number of words in the trie
+	 * @param counts
+	 *            - unigram and bigram counts for the words
+	 */
+	protected Autocorrect(TrieNode base, int size, Counts counts) {
+		super(base, size);
+		this.counts = counts;
+	}
 
-			try {
-				if (prev != null && !prev.equals("") && !prev.equals(" ")) {
-					Gram followed = Autocorrect.frequency.get(prev);
+	/**
+	 * Merges shared suffixes, then annotates the merged nodes again.
+	 *
+	 * @return - the number of nodes left
+	 */
+	@Override
+	public int minimize() {
+		int nodes = super.minimize();
+		annotate(counts::unigram);
+		return nodes;
+	}
 
-					if (followed != null) {
-						int freq1 = followed.getFreq(o1);
-						int freq2 = followed.getFreq(o2);
+	/**
+	 * Copies the nodes anew, then annotates them again and rebuilds the
+	 * deletion index, if any, without the words removed since it was built.
+	 *
+	 * @return - the number of nodes left
+	 */
+	@Override
+	public int compact() {
+		int nodes = super.compact();
+		annotate(counts::unigram);
+		if (index != null) {
+			index = new DeletionIndex(this, index.getMaxDistance(),
+					index.getPrefixLength());
+		}
+		return nodes;
+	}
 
-						if (freq1 != freq2) {
-							return freq2 - freq1;
-						}
-					}
-				}
+	/**
+	 * Returns the unigram and bigram counts used for ranking.
+	 *
+	 * @return - the counts of this Autocorrect
+	 */
+	public Counts getCounts() {
+		return counts;
+	}
 
-				Gram shown1 = Autocorrect.frequency.get(o1);
-				Gram shown2 = Autocorrect.frequency.get(o2);
+	/**
+	 * Learns a sequence of words accepted by a user: each word, new ones
+	 * included, and each pair of words in a row. Queries see them once the
+	 * batch they are in is merged, when it reaches {@link #BATCH} words or
+	 * on the next {@link #flush()}.
+	 *
+	 * @param words
+	 *            - words in the order typed
+	 */
+	public void learn(List<String> words) {
+		learn(null, words);
+	}
 
-				if (shown1 != null && shown2 != null
-						&& shown1.times != shown2.times) {
-					return shown2.times - shown1.times;
-				}
+	/**
+	 * Learns a sequence of words accepted by a user after another word, which
+	 * is only counted as the first of a pair.
+	 *
+	 * @param prev
+	 *            - the word before them (null if none)
+	 * @param words
+	 *            - words in the order typed
+	 */
+	public void learn(String prev, List<String> words) {
+		if (words.isEmpty()) {
+			return;
+		}
 
-			} catch (NullPointerException e) {
-				System.out.println(o1.length() + " " + o2);
-				System.out.println("Error: " + e.toString());
+		List<String> sequence = new ArrayList<>(words.size() + 1);
+		sequence.add(prev);
+		sequence.addAll(words);
+
+		synchronized (pending) {
+			pending.add(sequence);
+			pendingWords += words.size();
+			if (pendingWords >= BATCH) {
+				flush();
+			}
+		}
+	}
+
+	/**
+	 * Merges the words learned since the last flush into a new snapshot and
+	 * publishes it to the queries that start after.
+	 */
+	public void flush() {
+		synchronized (pending) {
+			if (pending.isEmpty()) {
+				return;
 			}
-			return o1.compareTo(o2);
+
+			learned.set(learned.get().with(pending, this::contains));
+			pending.clear();
+			pendingWords = 0;
 		}
+
+		// Their keys name the snapshot before, so they would never be found
+		clearCache();
+	}
+
+	/**
+	 * @param word
+	 *            - a word
+	 * @return - true if it was built in or has been learned
+	 */
+	public boolean known(String word) {
+		return contains(word) || learned.get().contains(word);
 	}
 
 	/**
@@ -147,11 +276,7 @@ public class Autocorrect extends Trie {
 	 *            - is the distance we are willing to search
 	 */
 	public void setLed(int led) {
-		if (led < 0) {
-			throw new IllegalArgumentException("Can't set LED to < 0");
-		}
-
-		Autocorrect.led = led;
+		options.updateAndGet(o -> o.withLed(led));
 	}
 
 	/**
@@ -160,7 +285,135 @@ public class Autocorrect extends Trie {
 	 * @return - returns the led
 	 */
 	public int getLed() {
-		return led;
+		return options.get().getLed();
+	}
+
+	/**
+	 * Returns the options used by queries that aren't given any.
+	 *
+	 * @return - a snapshot of the default options
+	 */
+	public Options getOptions() {
+		return options.get();
+	}
+
+	/**
+	 * Replaces the options used by queries that aren't given any. Queries
+	 * already running keep the options they started with.
+	 *
+	 * @param value
+	 *            - the new default options
+	 */
+	public void setOptions(Options value) {
+		options.set(value);
+	}
+
+	/**
+	 * @param engine
+	 *            - how words within LED are found
+	 */
+	public void setEngine(Engine engine) {
+		this.engine = engine;
+	}
+
+	/**
+	 * Builds a deletion index over the words and answers LED queries with it
+	 * from now on. Queries above maxDistance still walk the trie.
+	 *
+	 * @param maxDistance
+	 *            - largest LED the index answers
+	 * @param prefixLength
+	 *            - number of leading characters whose deletions are indexed
+	 */
+	public void useDeletionIndex(int maxDistance, int prefixLength) {
+		index = new DeletionIndex(this, maxDistance, prefixLength);
+		engine = Engine.DELETION_INDEX;
+	}
+
+	/**
+	 * Splits the DP walks of LED queries across a pool, one task for each
+	 * subtree two levels below the root, when they are expected to cost at
+	 * least threshold. Each task fills in rows of its own, and the words
+	 * found are handed on in the order one thread would find them, so the
+	 * suggestions are the same. Cheaper queries walk on the caller's thread.
+	 *
+	 * @param pool
+	 *            - runs the subtrees (null to walk on the caller's thread)
+	 * @param threshold
+	 *            - least number of words times the square of the LED of a
+	 *            walk split
+	 */
+	public void useParallelLed(ForkJoinPool pool, long threshold) {
+		ledPool = pool;
+		ledThreshold = threshold;
+	}
+
+	/**
+	 * @return - how words within LED are found
+	 */
+	public Engine getEngine() {
+		return engine;
+	}
+
+	/**
+	 * Keeps the results of top-k queries, so that a query asked again is
+	 * answered without a search. A result is found by the word, the words of
+	 * context its ranking reads, k and the options. Past size results, the
+	 * least recently used are dropped, and each is dropped once ttl has
+	 * passed since it was found.
+	 *
+	 * @param size
+	 *            - most results kept
+	 * @param ttl
+	 *            - time a result is kept
+	 * @param unit
+	 *            - unit of ttl
+	 */
+	public void useCache(long size, long ttl, TimeUnit unit) {
+		cache = CacheBuilder.newBuilder().maximumSize(size)
+				.expireAfterWrite(ttl, unit).recordStats().build();
+	}
+
+	/**
+	 * Drops the results kept, such as once the options they were found with
+	 * are no longer used.
+	 */
+	public void clearCache() {
+		Cache<Query, List<String>> c = cache;
+		if (c != null) {
+			c.invalidateAll();
+		}
+	}
+
+	/**
+	 * @return - hits, misses and evictions of the results kept, all 0 if
+	 *         none are
+	 */
+	public CacheStats getCacheStats() {
+		Cache<Query, List<String>> c = cache;
+		if (c == null) {
+			return new CacheStats(0, 0, 0, 0, 0, 0);
+		}
+		return c.stats();
+	}
+
+	/**
+	 * Receives the words found within LED of a query.
+	 */
+	private interface LedCollector {
+
+		/**
+		 * @param word
+		 *            - a word within the limit
+		 * @param distance
+		 *            - its LED to the query
+		 */
+		void found(String word, int distance);
+
+		/**
+		 * @return - largest LED still worth finding
+		 */
+		int limit();
 	}
 
 	/**
@@ -171,17 +424,72 @@ public class Autocorrect extends Trie {
 	 * @return - a list of words within set led to word
 	 */
 	public List<String> suggestLed(String word) {
+		return suggestLed(word, getLed(), learned.get());
+	}
+
+	// The words within led of word, then those learned
+	private List<String> suggestLed(String word, int led, Learned known) {
 		List<String> suggestions = new ArrayList<>();
 
 		// Returns only exact word if led is zero
 		if (led == 0) {
-			if (contains(word)) {
+			if (contains(word) || known.contains(word)) {
 				suggestions.add(word);
 			}
 
 			return suggestions;
 		}
 
+		suggestLed(word, led, known, new LedCollector() {
+			@Override
+			public void found(String w, int distance) {
+				suggestions.add(w);
+			}
+
+			@Override
+			public int limit() {
+				return led;
+			}
+		});
+		return suggestions;
+	}
+
+	// Finds the words within the collector's limit, at most led
+	private void suggestLed(String word, int led, Learned known,
+			LedCollector collector) {
+		if (engine == Engine.DELETION_INDEX && index != null
+				&& led <= index.getMaxDistance()) {
+			Led distance = new Led(word);
+			for (String w : index.suggest(word, led)) {
+				// The index keeps words removed until compacted
+				if (contains(w)) {
+					collector.found(w, distance.led(w, led));
+				}
+			}
+		} else {
+			suggestLed(this, word, led, collector);
+		}
+
+		// The index only holds the words built in
+		if (!known.words().isEmpty()) {
+			suggestLed(known.words(), word, led, collector);
+		}
+	}
+
+	// Walks a trie for the words within the collector's limit
+	private void suggestLed(Trie trie, String word, int led,
+			LedCollector collector) {
+		TrieNode base = trie.getBase();
+		// Queries without a table fall back to the DP rows
+		if (engine == Engine.AUTOMATON
+				&& LevenshteinAutomaton.supports(word, led)) {
+			LevenshteinAutomaton automaton = new LevenshteinAutomaton(word,
+					led);
+			suggestAutomaton(base, automaton, automaton.start(),
+					new StringBuilder(), collector);
+			return;
+		}
+
 		char[] letters = (" " + word).toCharArray();
 		int[][] ledValue = new int[letters.length + led][letters.length];
 
@@ -189,24 +497,29 @@ public class Autocorrect extends Trie {
 			ledValue[0][y] = y;
 		}
 
+		ForkJoinPool pool = ledPool;
+		if (pool != null
+				&& (long) trie.size() * led * led >= ledThreshold) {
+			suggestLedParallel(pool, base, letters, ledValue, collector);
+			return;
+		}
+
 		StringBuilder sb = new StringBuilder(" ");
 
-		getBase().entrySet().forEach(i -> {
-			sb.append(i.getKey());
+		for (int i = 0; i < base.childCount(); i++) {
+			sb.append(base.keyAt(i));
 
 			// calls a helper
-				suggestLedHelper(i.getValue(), letters, ledValue, sb,
-						suggestions);
+			suggestLedHelper(base.childAt(i), letters, ledValue, sb,
+					collector);
 
-				sb.deleteCharAt(sb.length() - 1); // removes the last character
-			});
-
-		return suggestions;
+			sb.deleteCharAt(sb.length() - 1); // removes the last character
+		}
 	}
 
 	// Helper function for suggestLedHelper
 	private static void suggestLedHelper(TrieNode node, char[] letters,
-			int[][] ledValue, StringBuilder sb, List<String> suggestions) {
+			int[][] ledValue, StringBuilder sb, LedCollector collector) {
 		int sL = sb.length() - 1;
 		// base for the recursive loop
 		if (sL + 1 > ledValue.length) {
@@ -214,11 +527,36 @@ public class Autocorrect extends Trie {
 		}
 
 		int length = letters.length;
+		int min = fillRow(letters, ledValue, sb);
+
+		// If word is in the led then add it to suggestions
+		if (ledValue[sL][length - 1] <= collector.limit() && node.validWord()) {
+			collector.found(sb.substring(1), ledValue[sL][length - 1]);
+		}
+
+		// Check to see if we are at max distance allowed if not go further
+		if (min <= collector.limit()) {
+			for (int i = 0; i < node.childCount(); i++) {
+				sb.append(node.keyAt(i));
+
+				// Recursive call
+				suggestLedHelper(node.childAt(i), letters, ledValue, sb,
+						collector);
 
+				sb.deleteCharAt(sb.length() - 1);
+			}
+		}
+	}
+
+	// Fills in the row of the last character of sb from the row above it,
+	// returning the least value of the row
+	private static int fillRow(char[] letters, int[][] ledValue,
+			StringBuilder sb) {
+		int sL = sb.length() - 1;
 		ledValue[sL][0] = sL;
 		int min = sL;
 
-		for (int k = 1; k < length; k++) {
+		for (int k = 1; k < letters.length; k++) {
 			ledValue[sL][k] = ledValue[sL - 1][k - 1];
 
 			if (sb.charAt(sL) != letters[k]) {
@@ -232,47 +570,206 @@ public class Autocorrect extends Trie {
 				min = ledValue[sL][k];
 			}
 		}
+		return min;
+	}
 
-		// If word is in the led then add it to suggestions
-		if (ledValue[sL][length - 1] <= led && node.validWord()) {
-			suggestions.add(sb.toString().substring(1));
+	// Walks the top levels here and the subtrees below them on the pool,
+	// then hands on the words found in the order of a walk on one thread.
+	// Each part finds words within the limit at the start, and those past
+	// the limit once their turn comes are dropped, as the walk would have
+	private static void suggestLedParallel(ForkJoinPool pool, TrieNode base,
+			char[] letters, int[][] ledValue, LedCollector collector) {
+		List<Found> parts = new ArrayList<>();
+		List<LedTask> tasks = new ArrayList<>();
+		fanOut(base, letters, ledValue, new StringBuilder(" "),
+				collector.limit(), parts, tasks);
+
+		pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+		for (Found part : parts) {
+			part.replay(collector);
 		}
+	}
 
-		// Check to see if we are at max distance allowed if not go further
-		if (min <= led) {
-			for (Entry<Character, TrieNode> e : node.entrySet()) {
-				sb.append(e.getKey());
+	// Walks the levels above FAN_OUT as suggestLedHelper does, making a task
+	// for each node at FAN_OUT
+	private static void fanOut(TrieNode node, char[] letters,
+			int[][] ledValue, StringBuilder sb, int limit, List<Found> parts,
+			List<LedTask> tasks) {
+		for (int i = 0; i < node.childCount(); i++) {
+			sb.append(node.keyAt(i));
+			TrieNode child = node.childAt(i);
+			Found found = new Found(limit);
+			parts.add(found);
+
+			int sL = sb.length() - 1;
+			if (sL == FAN_OUT) {
+				// Only the rows above the subtree are shared, so they're copied
+				int[][] rows = new int[ledValue.length][];
+				for (int j = 0; j < rows.length; j++) {
+					rows[j] = new int[letters.length];
+				}
+				for (int j = 0; j < sL; j++) {
+					System.arraycopy(ledValue[j], 0, rows[j], 0,
+							letters.length);
+				}
+				tasks.add(new LedTask(child, letters, rows, sb.toString(),
+						found));
+			} else if (sL < ledValue.length) {
+				int min = fillRow(letters, ledValue, sb);
+				int distance = ledValue[sL][letters.length - 1];
+				if (distance <= limit && child.validWord()) {
+					found.found(sb.substring(1), distance);
+				}
+				if (min <= limit) {
+					fanOut(child, letters, ledValue, sb, limit, parts, tasks);
+				}
+			}
 
-				// Recursive call
-				suggestLedHelper(e.getValue(), letters, ledValue, sb,
-						suggestions);
+			sb.deleteCharAt(sL);
+		}
+	}
 
-				sb.deleteCharAt(sb.length() - 1);
+	/**
+	 * The words found by part of a split walk, kept until the parts before
+	 * it have been handed on.
+	 */
+	private static final class Found implements LedCollector {
+		private final int limit;
+		private final List<String> words = new ArrayList<>();
+		private final List<Integer> distances = new ArrayList<>();
+
+		/**
+		 * @param limit
+		 *            - the limit when the walk started
+		 */
+		Found(int limit) {
+			this.limit = limit;
+		}
+
+		@Override
+		public void found(String word, int distance) {
+			words.add(word);
+			distances.add(distance);
+		}
+
+		@Override
+		public int limit() {
+			return limit;
+		}
+
+		/**
+		 * @param collector
+		 *            - receives the words still within its limit
+		 */
+		void replay(LedCollector collector) {
+			for (int i = 0; i < words.size(); i++) {
+				if (distances.get(i) <= collector.limit()) {
+					collector.found(words.get(i), distances.get(i));
+				}
 			}
 		}
 	}
 
 	/**
-	 * Finds if a word could use a space
-	 *
-	 * @param s
-	 *            - a word that could have a space
-	 * @return - a list of two words
+	 * Walks one subtree of a split walk, with rows of its own.
 	 */
-	public List<String> whitespace(String s) {
-		List<String> retSug = new ArrayList<String>();
+	private static final class LedTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final transient TrieNode node;
+		private final char[] letters;
+		private final int[][] ledValue;
+		private final String prefix;
+		private final transient Found found;
+
+		/**
+		 * @param node
+		 *            - root of the subtree
+		 * @param letters
+		 *            - the query, after a space
+		 * @param ledValue
+		 *            - rows filled in above node
+		 * @param prefix
+		 *            - a space, then the characters down to node
+		 * @param found
+		 *            - receives the words found
+		 */
+		LedTask(TrieNode node, char[] letters, int[][] ledValue,
+				String prefix, Found found) {
+			this.node = node;
+			this.letters = letters;
+			this.ledValue = ledValue;
+			this.prefix = prefix;
+			this.found = found;
+		}
+
+		@Override
+		protected void compute() {
+			suggestLedHelper(node, letters, ledValue,
+					new StringBuilder(prefix), found);
+		}
+	}
+
+	// Walks the trie and the automaton together, in the same order as the DP
+	private static void suggestAutomaton(TrieNode node,
+			LevenshteinAutomaton automaton, int state, StringBuilder sb,
+			LedCollector collector) {
+		int depth = sb.length();
+
+		for (int i = 0; i < node.childCount(); i++) {
+			char c = node.keyAt(i);
+			int next = automaton.step(state, depth, c);
 
-		// Checks all possible subsets of words
-		for (int i = 1; i < s.length(); i++) {
-			String w1 = s.substring(0, i);
-			String w2 = s.substring(i);
+			if (automaton.minimum(next) <= collector.limit()) {
+				TrieNode child = node.childAt(i);
+				sb.append(c);
 
-			if (contains(w1) && contains(w2)) {
-				retSug.add(w1 + " " + w2);
+				int distance = automaton.distance(next, depth + 1);
+				if (child.validWord() && distance <= collector.limit()) {
+					collector.found(sb.toString(), distance);
+				}
+
+				suggestAutomaton(child, automaton, next, sb, collector);
+
+				sb.deleteCharAt(depth);
 			}
 		}
+	}
+
+	/**
+	 * Finds if a word could use spaces
+	 *
+	 * @param s
+	 *            - a word that could have spaces
+	 * @return - the {@link #SEGMENTATIONS} most likely splits of s into two
+	 *         words or more, most likely first
+	 */
+	public List<String> whitespace(String s) {
+		return whitespace(s, null, SEGMENTATIONS, learned.get());
+	}
+
+	/**
+	 * Finds the most likely ways to split text typed without spaces into
+	 * words, scored by the counts of each word after the one before it. See
+	 * {@link Segmenter}.
+	 *
+	 * @param s
+	 *            - a word that could have spaces
+	 * @param prev
+	 *            - the word before it (null if none)
+	 * @param k
+	 *            - number of splits wanted
+	 * @return - at most k splits of s into two words or more, most likely
+	 *         first
+	 */
+	public List<String> whitespace(String s, String prev, int k) {
+		return whitespace(s, prev, k, learned.get());
+	}
 
-		return retSug;
+	// The splits of s into words, built in or learned
+	private List<String> whitespace(String s, String prev, int k,
+			Learned known) {
+		return new Segmenter(this, counts, known).segment(s, prev, k);
 	}
 
 	/**
@@ -283,113 +780,883 @@ public class Autocorrect extends Trie {
 	 * @return - a list of strings that start with the string given
 	 */
 	public List<String> autocomplete(String s) {
+		return autocomplete(s, learned.get());
+	}
+
+	// The words starting with s, then those learned
+	private List<String> autocomplete(String s, Learned known) {
 		List<String> suggestions = new ArrayList<String>();
 		TrieNode node = getNode(s.trim()); // finds string in node
 
-		if (node == null) {
-			return suggestions;
+		if (node != null) {
+			Iterator<String> iter = new TrieIterator(node, s);
+			// add following nodes from current
+			while (iter.hasNext()) {
+				suggestions.add(iter.next());
+			}
 		}
 
-		Iterator<String> iter = new TrieIterator(node, s);
-		while (iter.hasNext()) {
-			suggestions.add(iter.next()); // add following nodes from current
-		}
+		suggestions.addAll(known.completions(s.trim()));
+		return suggestions;
+	}
 
+	// The words with a prefix within led of s, then those learned
+	private List<String> autocompleteFuzzy(String s, int led, Learned known) {
+		List<String> suggestions = new ArrayList<String>();
+		fuzzyRoots(getBase(), s, led, (node, text) -> {
+			Iterator<String> iter = new TrieIterator(node, text);
+			while (iter.hasNext()) {
+				suggestions.add(iter.next());
+			}
+		});
+
+		Trie words = known.words();
+		if (!words.isEmpty()) {
+			fuzzyRoots(words.getBase(), s, led, (node, text) -> {
+				Iterator<String> iter = words.new TrieIterator(node, text);
+				while (iter.hasNext()) {
+					suggestions.add(iter.next());
+				}
+			});
+		}
 		return suggestions;
 	}
 
-	public static String regex1 = "[^A-Za-z']+";
-	public static String regex2 = "[^A-Za-z]+";
+	// Finds the topmost nodes below base whose prefix is within led of word,
+	// below which are the words with a prefix within led
+	private static void fuzzyRoots(TrieNode base, String word, int led,
+			BiConsumer<TrieNode, String> found) {
+		if (word.length() <= led) {
+			found.accept(base, "");
+			return;
+		}
 
-	public List<String> wash(String word) {
-		List<String> parsed = new ArrayList<String>();
-		String[] keepTogether = word.toLowerCase().trim().split(" ");
-		for (String w : keepTogether) {
-			parsed.add(w.trim().replaceAll(regex2, " "));
+		char[] letters = (" " + word).toCharArray();
+		int[][] rows = new int[letters.length + led][letters.length];
+		for (int y = 1; y < letters.length; y++) {
+			rows[0][y] = y;
 		}
-		return parsed;
+
+		fuzzyRoots(base, letters, rows, new StringBuilder(" "), led, found);
 	}
 
-	public static List<String> washLine(String word) {
+	// Fills in the DP row of each child, as suggestLedHelper does, until a
+	// prefix is within led or none below can be
+	private static void fuzzyRoots(TrieNode node, char[] letters,
+			int[][] rows, StringBuilder sb, int led,
+			BiConsumer<TrieNode, String> found) {
+		for (int i = 0; i < node.childCount(); i++) {
+			sb.append(node.keyAt(i));
+			int depth = sb.length() - 1;
+			int[] row = rows[depth];
+			int[] above = rows[depth - 1];
+
+			row[0] = depth;
+			int min = depth;
+			for (int k = 1; k < letters.length; k++) {
+				row[k] = above[k - 1];
+				if (sb.charAt(depth) != letters[k]) {
+					row[k] = Math.min(Math.min(row[k], above[k]),
+							row[k - 1]) + 1;
+				}
+				min = Math.min(min, row[k]);
+			}
+
+			TrieNode child = node.childAt(i);
+			if (row[letters.length - 1] <= led) {
+				found.accept(child, sb.substring(1));
+			} else if (min <= led && depth + 1 < rows.length) {
+				fuzzyRoots(child, letters, rows, sb, led, found);
+			}
 
-		List<String> parse = new ArrayList<String>();
-		String[] keepTogether = word.toLowerCase().trim()
-				.replaceAll(regex1, " ").split(" ");
-		for (String w : keepTogether) {
-			parse.add(w.trim().replaceAll(regex2, " ").trim());
+			sb.deleteCharAt(depth);
 		}
+	}
+
+	public static final String regex1 = "[^A-Za-z']+";
+	public static final String regex2 = "[^A-Za-z]+";
+
+	// Tokens of a query, as the dictionary was built from them
+	public List<String> wash(String word) {
+		return Tokenizer.tokens(word);
+	}
 
-		return parse;
+	// Tokens of a line of corpus, without the empty ones the regexes left
+	public static List<String> washLine(String word) {
+		return Tokenizer.tokens(word);
 	}
 
 	public List<String> suggest(String word, String prev) {
-		// Comparator for how to sort suggestions
+		return suggest(word, context(prev));
+	}
+
+	/**
+	 * Finds every suggestion, ranked after the words typed before the word.
+	 *
+	 * @param word
+	 *            - the word being typed
+	 * @param context
+	 *            - the words before it, oldest first
+	 * @return - the suggestions, best first
+	 */
+	public List<String> suggest(String word, List<String> context) {
+		Options current = options.get();
+		Learned known = learned.get();
 		word = word.trim();
-		// Comparator for how to sort suggestions
-		Comparator<? super String> comp = new Frequency(word, prev);
 		LinkedHashSet<String> suggestions = new LinkedHashSet<String>();
-		if (contains(word)) {
+		if (contains(word) || known.contains(word)) {
 			suggestions.add(word);
 		}
 
-		if (useAutocomplete) {
-			suggestions.addAll(autocomplete(word));
+		boolean fuzzy = current.getFuzzy() && current.getAutocomplete()
+				&& current.getLed() > 0;
+		if (fuzzy) {
+			suggestions.addAll(autocompleteFuzzy(word, current.getLed(),
+					known));
 		}
 
-		if (led > 0) {
-			suggestions.addAll(suggestLed(word));
-			// comp = new Led(word);
+		if (current.getAutocomplete() && !fuzzy) {
+			suggestions.addAll(autocomplete(word, known));
 		}
 
-		if (useWhitespace) {
-			suggestions.addAll(whitespace(word));
+		if (current.getLed() > 0 && !fuzzy) {
+			suggestions.addAll(suggestLed(word, current.getLed(), known));
 		}
-		if (useSmart) {
-			comp = new Led(word);
+
+		if (current.getWhitespace()) {
+			String prev = null;
+			if (!context.isEmpty()) {
+				prev = context.get(context.size() - 1);
+			}
+			suggestions.addAll(whitespace(word, prev, SEGMENTATIONS, known));
 		}
 
-		List<String> retSuggestions = new ArrayList<String>(suggestions);
+		return sort(suggestions, word, new Scorer(context, current, known),
+				current.getSmart());
+	}
 
-		if (comp != null) {
-			Collections.sort(retSuggestions, comp);
+	/**
+	 * Sorts suggestions by frequency or by LED. Each is scored once, so the
+	 * sort compares numbers instead of looking up counts or distances.
+	 *
+	 * @param suggestions
+	 *            - suggestions in the order found
+	 * @param word
+	 *            - the word being typed
+	 * @param scorer
+	 *            - counts the words after those typed before
+	 * @param smart
+	 *            - order by LED instead of frequency
+	 * @return - the sorted suggestions
+	 */
+	private List<String> sort(Collection<String> suggestions, String word,
+			Scorer scorer, boolean smart) {
+		Candidate[] scored = new Candidate[suggestions.size()];
+		int found = 0;
+
+		if (smart) {
+			Led distances = new Led(word);
+			for (String text : suggestions) {
+				scored[found] = new Candidate(text, word, 0, 0, 0,
+						distances.led(text), found);
+				found++;
+			}
+			Arrays.sort(scored, Candidate.SMART);
+		} else {
+			for (String text : suggestions) {
+				scored[found] = scorer.candidate(text, word, found);
+				found++;
+			}
+			Arrays.sort(scored, Candidate.FREQUENCY);
 		}
 
-		return retSuggestions;
+		List<String> sorted = new ArrayList<>(scored.length);
+		for (Candidate c : scored) {
+			sorted.add(c.getText());
+		}
+		return sorted;
+	}
+
+	/**
+	 * @param prev
+	 *            - the word before the one typed (null, "" or " " if none)
+	 * @return - the words before it
+	 */
+	private static List<String> context(String prev) {
+		if (prev == null || prev.equals("") || prev.equals(" ")) {
+			return Collections.emptyList();
+		}
+		return Collections.singletonList(prev);
+	}
+
+	// Weight of each order backed off, as in stupid backoff
+	private static final double BACKOFF = 0.4;
+
+	// Ranks words by frequency after the words typed before them
+	private final class Scorer {
+		// Stupid backoff from order 3, else bigram then unigram counts
+		private final boolean backoff;
+		// Number of the n-gram of the last i + 1 words typed (-1 if unseen)
+		private final int[] grams;
+		// The word typed last (null if none counts) and the counts learned
+		private final String prev;
+		private final Learned known;
+		private final long total;
+
+		Scorer(List<String> context, Options opts, Learned known) {
+			this.known = known;
+			backoff = opts.getOrder() > 2;
+			int n = Math.min(opts.getOrder(), counts.order());
+			grams = new int[Math.max(0, Math.min(n - 1, context.size()))];
+			total = Math.max(1, counts.total() + known.total());
+
+			if (grams.length > 0) {
+				prev = context.get(context.size() - 1);
+			} else {
+				prev = null;
+			}
+
+			for (int i = 0; i < grams.length; i++) {
+				int start = context.size() - 1 - i;
+				int gram = counts.id(context.get(start));
+				for (int j = start + 1; j < context.size(); j++) {
+					gram = counts.extend(j - start, gram,
+							counts.id(context.get(j)));
+				}
+				grams[i] = gram;
+			}
+		}
+
+		/**
+		 * @param text
+		 *            - a suggestion
+		 * @param word
+		 *            - the word being typed
+		 * @param order
+		 *            - number of candidates found before it
+		 * @return - the suggestion with its first word scored
+		 */
+		Candidate candidate(String text, String word, int order) {
+			String first = Candidate.firstWord(text);
+			int id = counts.id(first);
+			int unigram = counts.unigram(id) + known.unigram(first);
+
+			if (backoff) {
+				return new Candidate(text, word, score(first, id), 0, unigram,
+						0, order);
+			}
+
+			int bigram = 0;
+			if (grams.length > 0) {
+				bigram = counts.bigram(grams[0], id)
+						+ known.bigram(prev, first);
+			}
+			return new Candidate(text, word, 0, bigram, unigram, 0, order);
+		}
+
+		/**
+		 * Stupid backoff: the share of the longest context seen followed by
+		 * the word, less for each order backed off.
+		 *
+		 * @param word
+		 *            - a word
+		 * @param id
+		 *            - its number (-1 if unknown)
+		 * @return - its score
+		 */
+		private double score(String word, int id) {
+			double weight = 1;
+			for (int i = grams.length - 1; i >= 0; i--) {
+				int gram = counts.extend(i + 1, grams[i], id);
+				int seen = counts.count(i + 2, gram);
+				int before = counts.count(i + 1, grams[i]);
+
+				// Only words and pairs are learned
+				if (i == 0) {
+					seen += known.bigram(prev, word);
+					before += known.unigram(prev);
+				}
+				// A word learned only as the word before a pair has no count
+				// of its own to share, so its pairs back off
+				if (seen > 0 && before > 0) {
+					return weight * seen / before;
+				}
+				weight *= BACKOFF;
+			}
+			return weight * (counts.unigram(id) + known.unigram(word)) / total;
+		}
+
+		/**
+		 * @param maxCount
+		 *            - bound on the counts of some words
+		 * @return - bound on their scores if none follows the word before
+		 */
+		double unseen(int maxCount) {
+			if (!backoff) {
+				return 0;
+			}
+			return Math.pow(BACKOFF, grams.length) * maxCount / total;
+		}
+	}
+
+	/**
+	 * Finds the k best suggestions, in the order of
+	 * {@link #suggest(String, String)}. Each candidate is scored once as it is
+	 * found and kept in a bounded heap, and generators stop once what they
+	 * have left can't beat the k-th best.
+	 *
+	 * @param word
+	 *            - the word being typed
+	 * @param prev
+	 *            - the word before it (null if none)
+	 * @param k
+	 *            - number of suggestions wanted
+	 * @return - at most k suggestions, best first
+	 */
+	public List<String> suggest(String word, String prev, int k) {
+		return suggest(word, prev, k, options.get());
+	}
+
+	/**
+	 * Finds the k best suggestions with the given options, which only this
+	 * query sees.
+	 *
+	 * @param word
+	 *            - the word being typed
+	 * @param prev
+	 *            - the word before it (null if none)
+	 * @param k
+	 *            - number of suggestions wanted
+	 * @param opts
+	 *            - settings of this query
+	 * @return - at most k suggestions, best first
+	 */
+	public List<String> suggest(String word, String prev, int k, Options opts) {
+		return suggest(word, context(prev), k, opts);
+	}
+
+	/**
+	 * Finds the k best suggestions with the given options, ranked after the
+	 * words typed before the word.
+	 *
+	 * @param word
+	 *            - the word being typed
+	 * @param context
+	 *            - the words before it, oldest first
+	 * @param k
+	 *            - number of suggestions wanted
+	 * @param opts
+	 *            - settings of this query
+	 * @return - at most k suggestions, best first
+	 */
+	public List<String> suggest(String word, List<String> context, int k,
+			Options opts) {
+		word = word.trim();
+		Learned known = learned.get();
+		Query query = query(word, context, k, opts, known);
+
+		List<String> found = cached(query);
+		if (found == null) {
+			found = rank(word, context, k, opts, known, null);
+			keep(query, found);
+		}
+		return found;
+	}
+
+	/**
+	 * Finds the k best suggestions for the word a user is typing, starting
+	 * from the state kept for the word they typed before. The words within
+	 * LED and the node below which the completions are found are kept for
+	 * each prefix of the word, so only the characters typed since the
+	 * prefix it shares with the word before are searched for. Words too long
+	 * to keep are searched for from the root.
+	 *
+	 * @param word
+	 *            - the word being typed
+	 * @param context
+	 *            - the words before it, oldest first
+	 * @param k
+	 *            - number of suggestions wanted
+	 * @param opts
+	 *            - settings of this query
+	 * @param typing
+	 *            - state kept for one user, locked throughout the query
+	 * @return - at most k suggestions, best first
+	 */
+	public List<String> suggest(String word, List<String> context, int k,
+			Options opts, Typing typing) {
+		word = word.trim();
+		Learned known = learned.get();
+		Query query = query(word, context, k, opts, known);
+
+		List<String> found = cached(query);
+		if (found != null) {
+			return found;
+		}
+
+		synchronized (typing) {
+			if (typing.update(this, word, opts.getLed())) {
+				found = rank(word, context, k, opts, known, typing);
+			}
+		}
+		if (found == null) {
+			found = rank(word, context, k, opts, known, null);
+		}
+		keep(query, found);
+		return found;
+	}
+
+	// The query as its result depends on (null if results aren't kept).
+	// Smart ranking reads no context, frequency ranking only the words of
+	// its n-grams, and splits the word before
+	private Query query(String word, List<String> context, int k,
+			Options opts, Learned known) {
+		if (cache == null) {
+			return null;
+		}
+
+		int read = 0;
+		if (!opts.getSmart()) {
+			read = Math.min(Math.min(opts.getOrder(), counts.order()) - 1,
+					context.size());
+		}
+		if (opts.getWhitespace()) {
+			read = Math.max(read, Math.min(1, context.size()));
+		}
+		return new Query(word, new ArrayList<>(context.subList(
+				context.size() - read, context.size())), k, opts,
+				known.version(), getModCount());
+	}
+
+	// A copy of the result kept for query (null if none)
+	private List<String> cached(Query query) {
+		Cache<Query, List<String>> c = cache;
+		if (query == null || c == null) {
+			return null;
+		}
+
+		List<String> found = c.getIfPresent(query);
+		if (found == null) {
+			return null;
+		}
+		return new ArrayList<>(found);
+	}
+
+	// Keeps a copy of the result of query
+	private void keep(Query query, List<String> found) {
+		Cache<Query, List<String>> c = cache;
+		if (query != null && c != null) {
+			c.put(query, new ArrayList<>(found));
+		}
+	}
+
+	// What the result of a top-k query depends on
+	private static final class Query {
+		private final String word;
+		private final List<String> context;
+		private final int k;
+		private final Options opts;
+		// Snapshot learned and changes to the words it was asked after
+		private final long learned;
+		private final int modCount;
+
+		Query(String word, List<String> context, int k, Options opts,
+				long learned, int modCount) {
+			this.word = word;
+			this.context = context;
+			this.k = k;
+			this.opts = opts;
+			this.learned = learned;
+			this.modCount = modCount;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Query)) {
+				return false;
+			}
+
+			Query other = (Query) o;
+			return word.equals(other.word) && context.equals(other.context)
+					&& k == other.k && opts.equals(other.opts)
+					&& learned == other.learned && modCount == other.modCount;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(word, context, k, opts, learned, modCount);
+		}
+	}
+
+	// The k best suggestions, searched for through typing if not null
+	private List<String> rank(String word, List<String> context, int k,
+			Options opts, Learned known, Typing typing) {
+		String prev = null;
+		if (!context.isEmpty()) {
+			prev = context.get(context.size() - 1);
+		}
+
+		Ranker ranker = new Ranker(word, new Scorer(context, opts, known), k,
+				opts);
+		if (contains(word) || known.contains(word)) {
+			ranker.offer(word, 0);
+		}
+
+		boolean fuzzy = opts.getFuzzy() && opts.getAutocomplete()
+				&& opts.getLed() > 0;
+		if (opts.getAutocomplete()) {
+			TrieNode node;
+			if (typing != null) {
+				node = typing.node();
+			} else {
+				node = getNode(word);
+			}
+
+			// The few words learned are offered before any search
+			if (!fuzzy) {
+				for (String w : known.completions(word)) {
+					ranker.offer(w, w.length() - word.length());
+				}
+			}
+
+			if (fuzzy) {
+				autocompleteFuzzy(node, word, prev, opts.getLed(), known,
+						typing, ranker);
+			} else if (node != null && opts.getSmart()) {
+				autocompleteByLength(node, word, ranker);
+			} else if (node != null && isAnnotated()) {
+				autocompleteByCount(node, word, prev, known, ranker);
+			} else if (node != null) {
+				Iterator<String> iter = new TrieIterator(node, word);
+				while (iter.hasNext()) {
+					ranker.offer(iter.next(), 0);
+				}
+			}
+			ranker.prefixesDone = true;
+		}
+
+		// Fuzzy completion also found the words within LED
+		if (fuzzy) {
+			ranker.prefixesDone = true;
+		} else if (opts.getLed() > 0 && typing != null) {
+			typing.within(ranker.limit(), ranker::found);
+			if (!known.words().isEmpty()) {
+				suggestLed(known.words(), word, opts.getLed(), ranker);
+			}
+		} else if (opts.getLed() > 0) {
+			suggestLed(word, opts.getLed(), known, ranker);
+		}
+
+		if (opts.getWhitespace()) {
+			for (String split : whitespace(word, prev, k, known)) {
+				ranker.offer(split, -1);
+			}
+		}
+
+		return ranker.top.toList();
+	}
+
+	// Completions by length then alphabetically, which is their smart order
+	private static void autocompleteByLength(TrieNode node, String word,
+			Ranker ranker) {
+		Deque<TrieNode> nodes = new ArrayDeque<>();
+		Deque<String> texts = new ArrayDeque<>();
+		nodes.add(node);
+		texts.add(word);
+
+		while (!nodes.isEmpty()) {
+			TrieNode n = nodes.poll();
+			String text = texts.poll();
+
+			// Everything after a rejected completion ranks lower
+			if (n.validWord() && !ranker.offer(text, text.length()
+					- word.length()) && !ranker.top.contains(text)) {
+				return;
+			}
+
+			for (int i = 0; i < n.childCount(); i++) {
+				nodes.add(n.childAt(i));
+				texts.add(text + n.keyAt(i));
+			}
+		}
+	}
+
+	// Completions by count, skipping subtrees that can't reach the top k
+	private void autocompleteByCount(TrieNode node, String word, String prev,
+			Learned known, Ranker ranker) {
+		// Only followers of prev have a count in context, so they go first
+		if (prev != null) {
+			// Words removed are still counted
+			for (String w : counts.followers(prev, word).keySet()) {
+				if (contains(w)) {
+					ranker.offer(w, 0);
+				}
+			}
+			for (String w : known.followers(prev, word)) {
+				if (contains(w) || known.contains(w)) {
+					ranker.offer(w, 0);
+				}
+			}
+		}
+
+		// Counts learned since the nodes were annotated raise their bounds
+		PriorityQueue<Branch> branches = new PriorityQueue<>();
+		branches.add(new Branch(node, word, known.maxUnigram()));
+		completeByCount(branches, ranker);
+	}
+
+	// Offers the words below the branches, most promising subtree first and
+	// ties alphabetically, until none left can reach the top k
+	private static void completeByCount(PriorityQueue<Branch> branches,
+			Ranker ranker) {
+		while (!branches.isEmpty()) {
+			Branch b = branches.poll();
+
+			// Every branch left is bounded by this one
+			if (ranker.beaten(b.maxCount, b.text)) {
+				return;
+			}
+
+			if (b.node.validWord()) {
+				ranker.offer(b.text, 0);
+			}
+			for (int i = 0; i < b.node.childCount(); i++) {
+				branches.add(new Branch(b.node.childAt(i), b.text
+						+ b.node.keyAt(i), b.learnedMax));
+			}
+		}
+	}
+
+	// Completions of every prefix within led of word, in one walk below the
+	// topmost such prefixes, found by typing if not null. They include the
+	// completions of word and the words within led of it
+	private void autocompleteFuzzy(TrieNode node, String word, String prev,
+			int led, Learned known, Typing typing, Ranker ranker) {
+		List<Branch> roots = new ArrayList<>();
+		BiConsumer<TrieNode, String> root = (n, text) -> roots.add(new Branch(
+				n, text, known.maxUnigram()));
+		if (typing != null) {
+			typing.roots(root);
+		} else {
+			fuzzyRoots(getBase(), word, led, root);
+		}
+
+		// The few words learned are offered before any search
+		Trie words = known.words();
+		if (!words.isEmpty()) {
+			fuzzyRoots(words.getBase(), word, led, (n, text) -> {
+				Iterator<String> iter = words.new TrieIterator(n, text);
+				while (iter.hasNext()) {
+					ranker.offer(iter.next(), -1);
+				}
+			});
+		}
+
+		if (ranker.smart) {
+			// Completions of word rank first, then by LED
+			if (node != null) {
+				autocompleteByLength(node, word, ranker);
+			}
+			ranker.prefixesDone = true;
+			for (Branch b : roots) {
+				completeByDistance(b.node, new StringBuilder(b.text), word,
+						ranker);
+			}
+		} else if (isAnnotated()) {
+			// The word itself and the followers of prev outrank any count, so
+			// they must be offered before any subtree is skipped
+			if (contains(word)) {
+				ranker.offer(word, 0);
+			}
+			if (prev != null) {
+				Led distance = new Led(word);
+				for (String w : counts.followers(prev, "").keySet()) {
+					if (contains(w) && distance.prefixLed(w, led) <= led) {
+						ranker.offer(w, 0);
+					}
+				}
+				for (String w : known.followers(prev, "")) {
+					if ((contains(w) || known.contains(w))
+							&& distance.prefixLed(w, led) <= led) {
+						ranker.offer(w, 0);
+					}
+				}
+			}
+			completeByCount(new PriorityQueue<>(roots), ranker);
+		} else {
+			for (Branch b : roots) {
+				Iterator<String> iter = new TrieIterator(b.node, b.text);
+				while (iter.hasNext()) {
+					ranker.offer(iter.next(), 0);
+				}
+			}
+		}
+	}
+
+	// The words below node that can still beat the k-th best by LED, which
+	// is at least how much longer than word they are
+	private static void completeByDistance(TrieNode node, StringBuilder text,
+			String word, Ranker ranker) {
+		Candidate worst = ranker.top.worst();
+		if (worst != null && (worst.isPrefixed()
+				|| text.length() - word.length() > worst.getLed())) {
+			return;
+		}
+
+		if (node.validWord()) {
+			ranker.offer(text.toString(), -1);
+		}
+		for (int i = 0; i < node.childCount(); i++) {
+			text.append(node.keyAt(i));
+			completeByDistance(node.childAt(i), text, word, ranker);
+			text.setLength(text.length() - 1);
+		}
+	}
+
+	// A subtree waiting in the best-first completion search
+	private static final class Branch implements Comparable<Branch> {
+		private final TrieNode node;
+		private final String text;
+		private final int learnedMax;
+		private final int maxCount;
+
+		Branch(TrieNode node, String text, int learnedMax) {
+			this.node = node;
+			this.text = text;
+			this.learnedMax = learnedMax;
+			this.maxCount = node.getMaxCount() + learnedMax;
+		}
+
+		@Override
+		public int compareTo(Branch other) {
+			if (maxCount != other.maxCount) {
+				return Integer.compare(other.maxCount, maxCount);
+			}
+			return text.compareTo(other.text);
+		}
+	}
+
+	// Scores candidates once and keeps the best
+	private class Ranker implements LedCollector {
+
+		private final String word;
+		private final Scorer scorer;
+		private final boolean smart;
+		private final int led;
+		private final TopK top;
+		private final Led distances;
+		private int found = 0;
+		// Set once every completion of word has been offered
+		private boolean prefixesDone = false;
+
+		Ranker(String word, Scorer scorer, int k, Options opts) {
+			this.word = word;
+			this.scorer = scorer;
+			this.smart = opts.getSmart();
+			this.led = opts.getLed();
+
+			if (smart) {
+				top = new TopK(k, Candidate.SMART);
+				distances = new Led(word);
+			} else {
+				top = new TopK(k, Candidate.FREQUENCY);
+				distances = null;
+			}
+		}
+
+		/**
+		 * @param text
+		 *            - a suggestion
+		 * @param distance
+		 *            - its LED to the word (-1 if unknown)
+		 * @return - true if it is among the best so far
+		 */
+		boolean offer(String text, int distance) {
+			if (!smart) {
+				return top.offer(scorer.candidate(text, word, found++));
+			}
+
+			if (distance < 0) {
+				distance = distances.led(text);
+			}
+			return top.offer(new Candidate(text, word, 0, 0, 0, distance,
+					found++));
+		}
+
+		/**
+		 * Checks to see if no word not seen after the previous word, starting
+		 * with prefix and counted at most maxCount times, can make the top k.
+		 *
+		 * @param maxCount
+		 *            - bound on the unigram counts
+		 * @param prefix
+		 *            - start of the words
+		 * @return - true if such words would all be rejected
+		 */
+		boolean beaten(int maxCount, String prefix) {
+			Candidate worst = top.worst();
+			if (worst == null) {
+				return false;
+			}
+			if (worst.isExact() || worst.getBigram() > 0) {
+				return true;
+			}
+			double bound = scorer.unseen(maxCount);
+			if (worst.getScore() != bound) {
+				return bound < worst.getScore();
+			}
+			if (worst.getUnigram() != maxCount) {
+				return maxCount < worst.getUnigram();
+			}
+			// Ties go alphabetically, and words below prefix sort after it
+			return prefix.compareTo(worst.getFirst()) >= 0;
+		}
+
+		@Override
+		public void found(String w, int distance) {
+			offer(w, distance);
+		}
+
+		@Override
+		public int limit() {
+			Candidate worst = top.worst();
+
+			// Only smart ranking orders by LED
+			if (smart && worst != null
+					&& (worst.isPrefixed() || prefixesDone)) {
+				return Math.min(led, worst.getLed());
+			}
+			return led;
+		}
 	}
 
 	public void setSmart(int value) {
-		if (value == 0) {
-			useSmart = false;
-		} else if (value == 1) {
-			useSmart = true;
+		if (value == 0 || value == 1) {
+			options.updateAndGet(o -> o.withSmart(value == 1));
 		}
 	}
 
 	public boolean getSmart() {
-		return useSmart;
+		return options.get().getSmart();
 	}
 
 	public boolean getWhitespace() {
-		return useWhitespace;
+		return options.get().getWhitespace();
 	}
 
 	public void setWhitespace(int value) {
-		if (value == 0) {
-			useWhitespace = false;
-		} else if (value == 1) {
-			useWhitespace = true;
+		if (value == 0 || value == 1) {
+			options.updateAndGet(o -> o.withWhitespace(value == 1));
 		}
 	}
 
 	public boolean getAutocomplete() {
-		return useAutocomplete;
+		return options.get().getAutocomplete();
 	}
 
 	public void setAutocomplete(int value) {
-		if (value == 0) {
-			useAutocomplete = false;
-		} else if (value == 1) {
-			useAutocomplete = true;
+		if (value == 0 || value == 1) {
+			options.updateAndGet(o -> o.withAutocomplete(value == 1));
 		}
 	}
 }
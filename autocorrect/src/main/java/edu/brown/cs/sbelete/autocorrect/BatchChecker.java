@@ -0,0 +1,262 @@
+package edu.brown.cs.sbelete.autocorrect;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Spell checks whole documents. The text is read in one stream and split by
+ * {@link Tokenizer} into blocks of tokens. The distinct tokens of a block
+ * not seen before are checked once each, in parallel on a ForkJoinPool, and
+ * then the block is written in order through a buffer, one line per token:
+ * the token if it is known, or else the token, a tab and its suggestions
+ * separated by ", ".
+ *
+ * <p>
+ * Suggestions are ranked without the words before the token, so a token has
+ * the same results wherever it is and a document costs one check per
+ * distinct token. Results are kept from block to block until there are too
+ * many, when they are dropped and found again as their tokens come back.
+ * Files are read as Latin-1, as {@link CorpusReader} reads corpora.
+ *
+ * @author Simon
+ */
+public final class BatchChecker {
+
+  /** Default number of tokens per block. */
+  public static final int DEFAULT_BLOCK = 1 << 16;
+
+  // Results kept between blocks
+  private static final int KEPT = 1 << 20;
+  // Tokens one task checks without forking
+  private static final int SPLIT = 16;
+  private static final int BUFFER = 64 << 10;
+
+  private final Autocorrect corrector;
+  private final Options options;
+  private final int k;
+  private final ForkJoinPool pool;
+  private final int block;
+
+  /**
+   * Checks on the common pool.
+   *
+   * @param corrector - the dictionary
+   * @param options - how suggestions are found and ranked
+   * @param k - number of suggestions per unknown token
+   */
+  public BatchChecker(Autocorrect corrector, Options options, int k) {
+    this(corrector, options, k, ForkJoinPool.commonPool(), DEFAULT_BLOCK);
+  }
+
+  /**
+   * @param corrector - the dictionary
+   * @param options - how suggestions are found and ranked
+   * @param k - number of suggestions per unknown token
+   * @param pool - checks the tokens
+   * @param block - number of tokens read before they are checked
+   */
+  public BatchChecker(Autocorrect corrector, Options options, int k,
+    ForkJoinPool pool, int block) {
+    if (k < 1 || block < 1) {
+      throw new IllegalArgumentException("Can't check blocks of " + block
+        + " for " + k + " suggestions");
+    }
+
+    this.corrector = corrector;
+    this.options = options;
+    this.k = k;
+    this.pool = pool;
+    this.block = block;
+  }
+
+  /**
+   * Checks a file.
+   *
+   * @param input - the document
+   * @param out - receives a line per token, and is flushed but not closed
+   * @return - number of tokens checked
+   * @throws IOException - if the file can't be read or out written
+   */
+  public long check(Path input, Writer out) throws IOException {
+    try (Reader in = Files.newBufferedReader(input,
+      StandardCharsets.ISO_8859_1)) {
+      return check(in, out);
+    }
+  }
+
+  /**
+   * Checks a stream of text.
+   *
+   * @param in - the document, which is read to its end but not closed
+   * @param out - receives a line per token, and is flushed but not closed
+   * @return - number of tokens checked
+   * @throws IOException - if in can't be read or out written
+   */
+  public long check(Reader in, Writer out) throws IOException {
+    Batch batch = new Batch(new BufferedWriter(out, BUFFER));
+    Tokenizer tokenizer = new Tokenizer(batch);
+    char[] buffer = new char[BUFFER];
+
+    try {
+      int read;
+      while ((read = in.read(buffer)) >= 0) {
+        for (int i = 0; i < read; i++) {
+          tokenizer.accept(buffer[i]);
+        }
+      }
+      tokenizer.end();
+      batch.write();
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+
+    batch.writer.flush();
+    return batch.tokens;
+  }
+
+  /**
+   * The tokens read since the last block was written.
+   *
+   * @author Simon
+   */
+  private final class Batch implements Tokenizer.Sink {
+    private final BufferedWriter writer;
+    private final Map<String, Result> seen = new HashMap<>();
+    private final Result[] pending = new Result[block];
+    private final List<Result> unchecked = new ArrayList<>();
+    private int size = 0;
+    private long tokens = 0;
+
+    /**
+     * @param writer - receives the lines
+     */
+    Batch(BufferedWriter writer) {
+      this.writer = writer;
+    }
+
+    @Override
+    public void token(char[] chars, int length) {
+      String word = new String(chars, 0, length);
+      Result r = seen.get(word);
+      if (r == null) {
+        r = new Result(word);
+        seen.put(word, r);
+        unchecked.add(r);
+      }
+
+      pending[size++] = r;
+      tokens++;
+      if (size == block) {
+        try {
+          write();
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+    }
+
+    /**
+     * Checks the new tokens of the block, then writes it.
+     *
+     * @throws IOException - if the writer fails
+     */
+    void write() throws IOException {
+      if (!unchecked.isEmpty()) {
+        pool.invoke(new Check(unchecked.toArray(new Result[0]), 0,
+          unchecked.size()));
+        unchecked.clear();
+      }
+
+      for (int i = 0; i < size; i++) {
+        writer.write(pending[i].line);
+        writer.write('\n');
+        pending[i] = null;
+      }
+      size = 0;
+
+      if (seen.size() > KEPT) {
+        seen.clear();
+      }
+    }
+  }
+
+  /**
+   * A distinct token and its line, once checked.
+   *
+   * @author Simon
+   */
+  private final class Result {
+    private final String word;
+    private String line;
+
+    Result(String word) {
+      this.word = word;
+    }
+
+    /**
+     * Checks the token. Tasks that write the line are joined before it is
+     * read, which makes it visible to the reader.
+     */
+    void check() {
+      if (corrector.known(word)) {
+        line = word;
+        return;
+      }
+
+      List<String> suggestions = corrector.suggest(word,
+        Collections.<String>emptyList(), k, options);
+      line = word + '\t' + String.join(", ", suggestions);
+    }
+  }
+
+  /**
+   * Checks a range of results, halving it until it is small.
+   *
+   * @author Simon
+   */
+  private static final class Check extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final transient Result[] results;
+    private final int from;
+    private final int to;
+
+    /**
+     * @param results - results to check
+     * @param from - first index of the range
+     * @param to - index after the range
+     */
+    Check(Result[] results, int from, int to) {
+      this.results = results;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= SPLIT) {
+        for (int i = from; i < to; i++) {
+          results[i].check();
+        }
+        return;
+      }
+
+      int middle = (from + to) >>> 1;
+      invokeAll(new Check(results, from, middle), new Check(results, middle,
+        to));
+    }
+  }
+}
@@ -0,0 +1,159 @@
+package edu.brown.cs.sbelete.autocorrect;
+
+import java.util.Comparator;
+
+/**
+ * A suggestion together with the values it is ranked by, computed once when
+ * it is found.
+ *
+ * @author Simon
+ */
+final class Candidate {
+
+  /**
+   * Ranks by frequency: the query itself, then the context score, then the
+   * count after the previous word, then the count of the word, then
+   * alphabetically by first word, then in the order found. Only one of the
+   * score and the count after the previous word is ever set.
+   */
+  static final Comparator<Candidate> FREQUENCY = (c1, c2) -> {
+    if (c1.exact != c2.exact) {
+      if (c1.exact) {
+        return -1;
+      }
+      return 1;
+    }
+    if (c1.score != c2.score) {
+      return Double.compare(c2.score, c1.score);
+    }
+    if (c1.bigram != c2.bigram) {
+      return Integer.compare(c2.bigram, c1.bigram);
+    }
+    if (c1.unigram != c2.unigram) {
+      return Integer.compare(c2.unigram, c1.unigram);
+    }
+
+    int first = c1.first.compareTo(c2.first);
+    if (first != 0) {
+      return first;
+    }
+    return Integer.compare(c1.order, c2.order);
+  };
+
+  /**
+   * Ranks like {@link Led}: words starting with the query, then by LED, then
+   * alphabetically.
+   */
+  static final Comparator<Candidate> SMART = (c1, c2) -> {
+    if (c1.prefixed != c2.prefixed) {
+      if (c1.prefixed) {
+        return -1;
+      }
+      return 1;
+    }
+    if (c1.led != c2.led) {
+      return Integer.compare(c1.led, c2.led);
+    }
+    return c1.text.compareTo(c2.text);
+  };
+
+  private final String text;
+  private final String first;
+  private final boolean exact;
+  private final boolean prefixed;
+  private final double score;
+  private final int bigram;
+  private final int unigram;
+  private final int led;
+  private final int order;
+
+  /**
+   * @param text - the suggestion
+   * @param word - the query
+   * @param score - context score of the first word (0 if not scored)
+   * @param bigram - count of the first word after the previous word
+   * @param unigram - count of the first word
+   * @param led - distance to the query
+   * @param order - number of candidates found before this one
+   */
+  Candidate(String text, String word, double score, int bigram, int unigram,
+    int led, int order) {
+    this.text = text;
+    this.first = firstWord(text);
+    this.exact = first.equals(word);
+    this.prefixed = text.startsWith(word);
+    this.score = score;
+    this.bigram = bigram;
+    this.unigram = unigram;
+    this.led = led;
+    this.order = order;
+  }
+
+  /**
+   * @param text - a suggestion, possibly split by whitespace
+   * @return - its first word
+   */
+  static String firstWord(String text) {
+    int space = text.indexOf(' ');
+    if (space < 0) {
+      return text;
+    }
+    return text.substring(0, space);
+  }
+
+  /**
+   * @return - the suggestion
+   */
+  String getText() {
+    return text;
+  }
+
+  /**
+   * @return - the first word of the suggestion
+   */
+  String getFirst() {
+    return first;
+  }
+
+  /**
+   * @return - true if the first word is the query
+   */
+  boolean isExact() {
+    return exact;
+  }
+
+  /**
+   * @return - context score of the first word
+   */
+  double getScore() {
+    return score;
+  }
+
+  /**
+   * @return - count of the first word after the previous word
+   */
+  int getBigram() {
+    return bigram;
+  }
+
+  /**
+   * @return - count of the first word
+   */
+  int getUnigram() {
+    return unigram;
+  }
+
+  /**
+   * @return - true if the suggestion starts with the query
+   */
+  boolean isPrefixed() {
+    return prefixed;
+  }
+
+  /**
+   * @return - distance to the query
+   */
+  int getLed() {
+    return led;
+  }
+}
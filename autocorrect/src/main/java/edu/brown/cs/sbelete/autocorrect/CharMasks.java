@@ -0,0 +1,68 @@
+package edu.brown.cs.sbelete.autocorrect;
+
+import java.util.Arrays;
+
+/**
+ * For each character of a word, the bitmask of the positions where it occurs.
+ * ASCII characters are looked up directly, others by binary search.
+ *
+ * @author Simon
+ */
+final class CharMasks {
+
+  private static final int ASCII = 128;
+
+  private final long[] ascii = new long[ASCII];
+  private final char[] alphabet;
+  private final long[] masks;
+
+  /**
+   * Builds the masks of the first 64 - shift characters of a word.
+   *
+   * @param word - the word
+   * @param shift - bit of the first character
+   */
+  CharMasks(CharSequence word, int shift) {
+    int length = Math.min(word.length(), Long.SIZE - shift);
+
+    char[] letters = new char[length];
+    for (int i = 0; i < length; i++) {
+      letters[i] = word.charAt(i);
+    }
+    Arrays.sort(letters);
+    int distinct = 0;
+    for (int i = 0; i < length; i++) {
+      if (i == 0 || letters[i] != letters[i - 1]) {
+        letters[distinct++] = letters[i];
+      }
+    }
+    alphabet = Arrays.copyOf(letters, distinct);
+    masks = new long[distinct];
+
+    for (int i = 0; i < length; i++) {
+      char c = word.charAt(i);
+      long bit = 1L << (i + shift);
+
+      masks[Arrays.binarySearch(alphabet, c)] |= bit;
+      if (c < ASCII) {
+        ascii[c] |= bit;
+      }
+    }
+  }
+
+  /**
+   * @param c - a character
+   * @return - the positions where it occurs (0 if nowhere)
+   */
+  long mask(char c) {
+    if (c < ASCII) {
+      return ascii[c];
+    }
+
+    int i = Arrays.binarySearch(alphabet, c);
+    if (i < 0) {
+      return 0;
+    }
+    return masks[i];
+  }
+}
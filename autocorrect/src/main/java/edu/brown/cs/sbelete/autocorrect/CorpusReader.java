@@ -0,0 +1,354 @@
+package edu.brown.cs.sbelete.autocorrect;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Builds an Autocorrect from a corpus file without holding its words. The
+ * file is split into chunks of whole lines, which worker threads read
+ * through positional NIO reads, tokenize and count into their own tables.
+ * The tables are then merged, so memory grows with the vocabulary and not
+ * with the corpus. N-grams up to a chosen order are counted, and those seen
+ * fewer than a chosen number of times are dropped once all are counted.
+ *
+ * <p>
+ * Tokens are those of {@link Tokenizer}, with the bytes of the file read as
+ * Latin-1, so those of non-ASCII characters separate tokens.
+ *
+ * @author Simon
+ */
+public final class CorpusReader {
+
+  /** Default number of bytes per chunk. */
+  public static final int DEFAULT_CHUNK = 8 << 20;
+
+  private static final int BLOCK = 64 << 10;
+
+  private final Path path;
+  private final int threads;
+  private final long chunk;
+  private final int order;
+  private final int minCount;
+
+  /**
+   * Counts words and bigrams, keeping them all.
+   *
+   * @param path - corpus file
+   * @param threads - number of worker threads
+   * @param chunk - number of bytes per chunk, give or take a line
+   */
+  public CorpusReader(Path path, int threads, long chunk) {
+    this(path, threads, chunk, 2, 1);
+  }
+
+  /**
+   * @param path - corpus file
+   * @param threads - number of worker threads
+   * @param chunk - number of bytes per chunk, give or take a line
+   * @param order - longest n-grams counted, up to {@link Options#MAX_ORDER}
+   * @param minCount - n-grams of two words or more seen fewer times are
+   *        dropped
+   */
+  public CorpusReader(Path path, int threads, long chunk, int order,
+    int minCount) {
+    if (threads < 1 || chunk < 1) {
+      throw new IllegalArgumentException("Can't read with " + threads
+        + " threads and chunks of " + chunk);
+    }
+    if (order < 1 || order > Options.MAX_ORDER) {
+      throw new IllegalArgumentException("Can't count n-grams of order "
+        + order);
+    }
+
+    this.path = path;
+    this.threads = threads;
+    this.chunk = chunk;
+    this.order = order;
+    this.minCount = minCount;
+  }
+
+  /**
+   * Reads a corpus with one worker per processor, counting words and
+   * bigrams.
+   *
+   * @param path - corpus file
+   * @param layout - how the trie stores the children of each node
+   * @return - an Autocorrect of the words in the corpus
+   * @throws IOException - if the file can't be read
+   */
+  public static Autocorrect read(Path path, Trie.Layout layout)
+    throws IOException {
+    return read(path, layout, 2, 1);
+  }
+
+  /**
+   * Reads a corpus with one worker per processor.
+   *
+   * @param path - corpus file
+   * @param layout - how the trie stores the children of each node
+   * @param order - longest n-grams counted
+   * @param minCount - n-grams of two words or more seen fewer times are
+   *        dropped
+   * @return - an Autocorrect of the words in the corpus
+   * @throws IOException - if the file can't be read
+   */
+  public static Autocorrect read(Path path, Trie.Layout layout, int order,
+    int minCount) throws IOException {
+    return new CorpusReader(path, Runtime.getRuntime().availableProcessors(),
+      DEFAULT_CHUNK, order, minCount).read(layout);
+  }
+
+  /**
+   * Reads the corpus.
+   *
+   * @param layout - how the trie stores the children of each node
+   * @return - an Autocorrect of the words in the corpus
+   * @throws IOException - if the file can't be read
+   */
+  public Autocorrect read(Trie.Layout layout) throws IOException {
+    return new Autocorrect(count(), layout);
+  }
+
+  /**
+   * Counts the words of the corpus and its n-grams.
+   *
+   * @return - the counts of every word and of the n-grams kept
+   * @throws IOException - if the file can't be read
+   */
+  GramTable count() throws IOException {
+    try (FileChannel channel = FileChannel.open(path,
+      StandardOpenOption.READ)) {
+      long size = channel.size();
+      int chunks = (int) Math.max(1, (size + chunk - 1) / chunk);
+      String[][] firsts = new String[chunks][];
+      String[][] lasts = new String[chunks][];
+      AtomicInteger next = new AtomicInteger();
+
+      int workers = Math.min(threads, chunks);
+      ExecutorService pool = Executors.newFixedThreadPool(workers);
+      List<Future<GramCounter>> counters = new ArrayList<>();
+
+      try {
+        for (int w = 0; w < workers; w++) {
+          counters.add(pool.submit(() -> {
+            GramCounter counter = new GramCounter(order);
+            int c;
+            while ((c = next.getAndIncrement()) < chunks) {
+              Scanner scanner = new Scanner(counter);
+              scan(channel, c * chunk, Math.min(size, (c + 1) * chunk),
+                scanner);
+              firsts[c] = scanner.first();
+              lasts[c] = scanner.last();
+            }
+            return counter;
+          }));
+        }
+
+        GramCounter merged = null;
+        for (Future<GramCounter> counter : counters) {
+          merged = merge(merged, counter.get());
+        }
+
+        stitch(merged, firsts, lasts);
+        return merged.table(minCount);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while reading " + path, e);
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof IOException) {
+          throw (IOException) e.getCause();
+        }
+        throw new IOException("Can't read " + path, e.getCause());
+      } finally {
+        pool.shutdownNow();
+      }
+    }
+  }
+
+  /**
+   * Counts the n-grams split between chunks. Each starts in the last words
+   * of the chunks before and ends in the first words of a chunk.
+   *
+   * @param counter - counts of the whole corpus
+   * @param firsts - first words of each chunk, up to one fewer than the order
+   * @param lasts - last words of each chunk, as many
+   */
+  private void stitch(GramCounter counter, String[][] firsts,
+    String[][] lasts) {
+    String[] history = new String[0];
+
+    for (int c = 0; c < firsts.length; c++) {
+      String[] sequence = Arrays.copyOf(history, history.length
+        + firsts[c].length);
+      System.arraycopy(firsts[c], 0, sequence, history.length,
+        firsts[c].length);
+
+      for (int end = history.length + 1; end <= sequence.length; end++) {
+        for (int n = 2; n <= order && end - n >= 0; n++) {
+          if (end - n < history.length) {
+            counter.add(sequence, end - n, end);
+          }
+        }
+      }
+
+      // A chunk with fewer words than that adds to the history before it
+      String[] joined = Arrays.copyOf(history, history.length
+        + lasts[c].length);
+      System.arraycopy(lasts[c], 0, joined, history.length, lasts[c].length);
+      history = Arrays.copyOfRange(joined, Math.max(0, joined.length - order
+        + 1), joined.length);
+    }
+  }
+
+  /**
+   * Adds the smaller of two counters into the larger.
+   *
+   * @param a - a counter (null if none yet)
+   * @param b - another counter
+   * @return - the merged counter
+   */
+  private static GramCounter merge(GramCounter a, GramCounter b) {
+    if (a == null) {
+      return b;
+    }
+    if (a.size() < b.size()) {
+      return merge(b, a);
+    }
+
+    a.addAll(b);
+    return a;
+  }
+
+  /**
+   * Scans the lines starting between from and to. The line running into to
+   * is read to its end, and one running into from belongs to the chunk
+   * before.
+   *
+   * @param channel - the corpus
+   * @param from - first byte of the chunk
+   * @param to - first byte after the chunk
+   * @param scanner - receives the bytes
+   * @throws IOException - if the file can't be read
+   */
+  private static void scan(FileChannel channel, long from, long to,
+    Scanner scanner) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(BLOCK);
+    long position = from;
+    boolean skipping = false;
+
+    if (from > 0) {
+      position = from - 1;
+      skipping = true;
+    }
+
+    while (true) {
+      buffer.clear();
+      int read = channel.read(buffer, position);
+      if (read <= 0) {
+        break;
+      }
+
+      byte[] bytes = buffer.array();
+      for (int i = 0; i < read; i++) {
+        byte b = bytes[i];
+
+        if (b == '\n' && position + i >= to - 1) {
+          scanner.end();
+          return;
+        } else if (skipping) {
+          skipping = b != '\n';
+        } else {
+          scanner.accept(b);
+        }
+      }
+      position += read;
+    }
+
+    scanner.end();
+  }
+
+  /**
+   * Counts the tokens of one chunk.
+   *
+   * @author Simon
+   */
+  private static final class Scanner implements Tokenizer.Sink {
+
+    private final GramCounter counter;
+    private final Tokenizer tokenizer = new Tokenizer(this);
+    private final int[] history;
+    // Up to order - 1 words from the start, and the last as many
+    private final String[] first;
+    private final String[] last;
+    private long words = 0;
+
+    /**
+     * @param counter - counts to add to
+     */
+    Scanner(GramCounter counter) {
+      this.counter = counter;
+      history = counter.start();
+      first = new String[counter.order() - 1];
+      last = new String[counter.order() - 1];
+    }
+
+    /**
+     * @param b - next byte, read as Latin-1 so that no byte of a non-ASCII
+     *        character is a letter
+     */
+    void accept(byte b) {
+      tokenizer.accept((char) (b & 0xFF));
+    }
+
+    /**
+     * Ends the token being read.
+     */
+    void end() {
+      tokenizer.end();
+    }
+
+    @Override
+    public void token(char[] chars, int length) {
+      counter.add(chars, length, history);
+
+      if (first.length > 0) {
+        String word = counter.word(history[0]);
+        if (words < first.length) {
+          first[(int) words] = word;
+        }
+        last[(int) (words % last.length)] = word;
+      }
+      words++;
+    }
+
+    /**
+     * @return - the first words of the chunk, up to one fewer than the order
+     */
+    String[] first() {
+      return Arrays.copyOf(first, (int) Math.min(words, first.length));
+    }
+
+    /**
+     * @return - the last words of the chunk, as many, in order
+     */
+    String[] last() {
+      int n = (int) Math.min(words, last.length);
+      String[] ordered = new String[n];
+      for (int i = 0; i < n; i++) {
+        ordered[i] = last[(int) ((words - n + i) % last.length)];
+      }
+      return ordered;
+    }
+  }
+}
@@ -0,0 +1,111 @@
+package edu.brown.cs.sbelete.autocorrect;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * N-gram counts that suggestions are ranked with. Words can be looked up once
+ * by {@link #id(String)}, then counted by their number. Longer n-grams are
+ * numbered too, each within its order, and are found by extending a shorter
+ * one a word at a time.
+ *
+ * @author Simon
+ */
+public interface Counts {
+
+  /**
+   * Number of a word, for the counts taking numbers.
+   *
+   * @param word - word to look up
+   * @return - its number (-1 if unknown)
+   */
+  int id(String word);
+
+  /**
+   * @return - the longest n-grams counted
+   */
+  int order();
+
+  /**
+   * @return - number of words seen, counting repeats
+   */
+  long total();
+
+  /**
+   * Number of the n-gram made of another followed by a word.
+   *
+   * @param order - order of the n-gram extended (1 for a word)
+   * @param gram - its number (-1 if unknown)
+   * @param id - number of the word after it (-1 if unknown)
+   * @return - number of the longer n-gram (-1 if never seen)
+   */
+  int extend(int order, int gram, int id);
+
+  /**
+   * Number of times an n-gram was seen.
+   *
+   * @param order - its order (1 for a word)
+   * @param gram - its number (-1 if unknown)
+   * @return - its count (0 if unknown)
+   */
+  int count(int order, int gram);
+
+  /**
+   * Number of times a word was seen.
+   *
+   * @param id - number of the word (-1 if unknown)
+   * @return - its count (0 if unknown)
+   */
+  int unigram(int id);
+
+  /**
+   * Number of times a word was seen right after another.
+   *
+   * @param prev - number of the previous word (-1 if unknown)
+   * @param id - number of the following word (-1 if unknown)
+   * @return - the count of the pair (0 if unknown)
+   */
+  int bigram(int prev, int id);
+
+  /**
+   * Number of times a word was seen.
+   *
+   * @param word - word to look up
+   * @return - its count (0 if unknown)
+   */
+  int unigram(String word);
+
+  /**
+   * Number of times word was seen right after prev.
+   *
+   * @param prev - the previous word
+   * @param word - the following word
+   * @return - the count of the pair (0 if unknown)
+   */
+  int bigram(String prev, String word);
+
+  /**
+   * Every word seen right after prev, with its count.
+   *
+   * @param prev - the previous word
+   * @return - followers of prev (empty if unknown)
+   */
+  Map<String, Integer> followers(String prev);
+
+  /**
+   * Every word starting with prefix seen right after prev, with its count.
+   *
+   * @param prev - the previous word
+   * @param prefix - start of the followers wanted
+   * @return - followers of prev starting with prefix (empty if none)
+   */
+  default Map<String, Integer> followers(String prev, String prefix) {
+    Map<String, Integer> found = new HashMap<>();
+    for (Map.Entry<String, Integer> e : followers(prev).entrySet()) {
+      if (e.getKey().startsWith(prefix)) {
+        found.put(e.getKey(), e.getValue());
+      }
+    }
+    return found;
+  }
+}
@@ -0,0 +1,269 @@
+package edu.brown.cs.sbelete.autocorrect;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * SymSpell-style deletion index. Every word is filed under each string left
+ * after deleting up to maxDistance characters from its first prefixLength
+ * characters. Two words within distance d share such a deletion, so the
+ * candidates for a query are found with a few hash probes and then checked
+ * with {@link Led#led(CharSequence, int)}.
+ *
+ * <p>
+ * Deletions are stored by 64-bit hash only. A collision just adds a
+ * candidate that fails the check, so no strings are kept per deletion.
+ *
+ * @author Simon
+ */
+public final class DeletionIndex {
+
+  /** Default largest distance the index answers. */
+  public static final int DEFAULT_DISTANCE = 2;
+
+  /** Default number of leading characters whose deletions are filed. */
+  public static final int DEFAULT_PREFIX = 7;
+
+  private static final long OFFSET = 0xcbf29ce484222325L;
+  private static final long PRIME = 0x100000001b3L;
+  private static final int CAPACITY = 16;
+  private static final int LOAD = 2; // keys fill at most half the table
+
+  private final String[] words;
+  private final int maxDistance;
+  private final int prefixLength;
+
+  // Open addressing from deletion hash to the head of its postings
+  private long[] keys = new long[CAPACITY];
+  private int[] heads = new int[CAPACITY];
+  private int count = 0;
+
+  // Postings as linked lists of word numbers
+  private int[] postWord = new int[CAPACITY];
+  private int[] postNext = new int[CAPACITY];
+  private int postings = 0;
+
+  /**
+   * Builds the index.
+   *
+   * @param words - the dictionary, in iteration order
+   * @param maxDistance - largest distance the index answers
+   * @param prefixLength - number of leading characters whose deletions are
+   *        filed; bounds the number of deletions per word
+   */
+  public DeletionIndex(Collection<String> words, int maxDistance,
+    int prefixLength) {
+    if (maxDistance < 0 || prefixLength < 1) {
+      throw new IllegalArgumentException("Can't index " + maxDistance
+        + " deletions of " + prefixLength + " characters");
+    }
+
+    this.words = new String[words.size()];
+    int n = 0;
+    for (String word : words) {
+      this.words[n++] = word;
+    }
+    this.maxDistance = maxDistance;
+    this.prefixLength = prefixLength;
+
+    Arrays.fill(heads, -1);
+    Set<Long> deletions = new HashSet<>();
+
+    for (int id = 0; id < this.words.length; id++) {
+      deletions.clear();
+      deletions(this.words[id], maxDistance, deletions);
+
+      for (long key : deletions) {
+        file(key, id);
+      }
+    }
+  }
+
+  /**
+   * @return - largest distance the index answers
+   */
+  public int getMaxDistance() {
+    return maxDistance;
+  }
+
+  /**
+   * @return - number of leading characters whose deletions are filed
+   */
+  public int getPrefixLength() {
+    return prefixLength;
+  }
+
+  /**
+   * Finds every word within distance of a query, in iteration order.
+   *
+   * @param word - the query
+   * @param distance - largest edit distance, at most the max distance
+   * @return - the words within distance
+   */
+  public List<String> suggest(String word, int distance) {
+    if (distance > maxDistance) {
+      throw new IllegalArgumentException("Index only answers up to "
+        + maxDistance);
+    }
+
+    Set<Long> deletions = new HashSet<>();
+    deletions(word, distance, deletions);
+
+    int[] found = new int[CAPACITY];
+    int size = 0;
+
+    for (long key : deletions) {
+      for (int p = heads[slot(key)]; p >= 0; p = postNext[p]) {
+        if (size == found.length) {
+          found = Arrays.copyOf(found, size * 2);
+        }
+        found[size++] = postWord[p];
+      }
+    }
+
+    // Word numbers follow iteration order
+    Arrays.sort(found, 0, size);
+
+    Led led = new Led(word);
+    List<String> suggestions = new ArrayList<>();
+    for (int i = 0; i < size; i++) {
+      if (i > 0 && found[i] == found[i - 1]) {
+        continue;
+      }
+
+      String candidate = words[found[i]];
+      if (led.led(candidate, distance) <= distance) {
+        suggestions.add(candidate);
+      }
+    }
+
+    return suggestions;
+  }
+
+  /**
+   * Hashes every deletion of up to distance characters from the prefix of a
+   * word.
+   *
+   * @param word - word to delete from
+   * @param distance - most characters deleted
+   * @param out - set receiving the hashes
+   */
+  private void deletions(String word, int distance, Set<Long> out) {
+    char[] prefix = word.substring(0, Math.min(word.length(), prefixLength))
+      .toCharArray();
+    deletions(prefix, prefix.length, 0, distance, out);
+  }
+
+  /**
+   * Recursively deletes characters at or after start.
+   *
+   * @param chars - characters left, in the first length places
+   * @param length - number of characters left
+   * @param start - first position that may be deleted
+   * @param left - deletions still allowed
+   * @param out - set receiving the hashes
+   */
+  private static void deletions(char[] chars, int length, int start,
+    int left, Set<Long> out) {
+    out.add(hash(chars, length));
+
+    if (left == 0) {
+      return;
+    }
+
+    for (int i = start; i < length; i++) {
+      char removed = chars[i];
+      System.arraycopy(chars, i + 1, chars, i, length - i - 1);
+
+      deletions(chars, length - 1, i, left - 1, out);
+
+      System.arraycopy(chars, i, chars, i + 1, length - i - 1);
+      chars[i] = removed;
+    }
+  }
+
+  /**
+   * FNV-1a hash of characters, never 0 so that 0 marks empty slots.
+   *
+   * @param chars - characters to hash
+   * @param length - number of characters used
+   * @return - the hash
+   */
+  private static long hash(char[] chars, int length) {
+    long hash = OFFSET;
+    for (int i = 0; i < length; i++) {
+      hash = (hash ^ chars[i]) * PRIME;
+    }
+    if (hash == 0) {
+      return 1;
+    }
+    return hash;
+  }
+
+  /**
+   * Finds the slot of a key, which is empty if the key is absent.
+   *
+   * @param key - deletion hash
+   * @return - its slot
+   */
+  private int slot(long key) {
+    int mask = keys.length - 1;
+    int i = (int) (key ^ (key >>> Integer.SIZE)) & mask;
+
+    while (keys[i] != 0 && keys[i] != key) {
+      i = (i + 1) & mask;
+    }
+
+    return i;
+  }
+
+  /**
+   * Adds a word to the postings of a deletion.
+   *
+   * @param key - deletion hash
+   * @param id - word number
+   */
+  private void file(long key, int id) {
+    if ((count + 1) * LOAD > keys.length) {
+      grow();
+    }
+
+    int i = slot(key);
+    if (keys[i] == 0) {
+      keys[i] = key;
+      count++;
+    }
+
+    if (postings == postWord.length) {
+      postWord = Arrays.copyOf(postWord, postings * 2);
+      postNext = Arrays.copyOf(postNext, postings * 2);
+    }
+    postWord[postings] = id;
+    postNext[postings] = heads[i];
+    heads[i] = postings++;
+  }
+
+  /**
+   * Doubles the table.
+   */
+  private void grow() {
+    long[] oldKeys = keys;
+    int[] oldHeads = heads;
+
+    keys = new long[oldKeys.length * 2];
+    heads = new int[oldKeys.length * 2];
+    Arrays.fill(heads, -1);
+
+    for (int j = 0; j < oldKeys.length; j++) {
+      if (oldKeys[j] != 0) {
+        int i = slot(oldKeys[j]);
+        keys[i] = oldKeys[j];
+        heads[i] = oldHeads[j];
+      }
+    }
+  }
+}
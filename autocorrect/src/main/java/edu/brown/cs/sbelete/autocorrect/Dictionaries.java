@@ -0,0 +1,321 @@
+package edu.brown.cs.sbelete.autocorrect;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.function.Consumer;
+
+/**
+ * Named dictionaries in one directory, loaded when first asked for. The
+ * dictionary "name" is the compiled file name.dict, or else the corpus
+ * name.txt, which is compiled to name.dict so that it loads quickly after.
+ * A corpus is compiled by one thread in the background, started the first
+ * time it is asked for, and the dictionary isn't served until it is done.
+ *
+ * <p>
+ * Every dictionary is served from its mapped compiled file, and weighs the
+ * size of that file. Once the weights of those loaded pass a budget, the
+ * least recently used are dropped until they fit again, and are mapped anew
+ * when next asked for. Words learned by a dropped dictionary are lost. The
+ * budget is of mapped bytes only: what a dictionary builds on the heap, such
+ * as its deletion index, its cached results and the words it learns, isn't
+ * weighed, and is bounded only by the settings it is prepared with.
+ *
+ * <p>
+ * Any number of threads can ask for dictionaries. One loads a missing
+ * dictionary while others asking for it wait, and those asking for loaded
+ * dictionaries don't wait on loads.
+ *
+ * @author Simon
+ */
+public final class Dictionaries {
+
+  /** Extension of compiled dictionaries. */
+  public static final String COMPILED = ".dict";
+
+  /** Extension of corpora. */
+  public static final String CORPUS = ".txt";
+
+  private final Path directory;
+  private final long budget;
+  private final Consumer<Autocorrect> prepare;
+
+  // Loaded dictionaries, least recently used first, guarded by this
+  private final LinkedHashMap<String, Loaded> loaded = new LinkedHashMap<>(
+    16, 0.75f, true);
+  private final Map<String, FutureTask<Loaded>> loading = new HashMap<>();
+  // Corpora being compiled, or that failed to, guarded by this
+  private final Map<String, Future<?>> compiling = new HashMap<>();
+  private final ExecutorService compiler = Executors.newSingleThreadExecutor(
+    r -> {
+      Thread t = new Thread(r, "compile");
+      t.setDaemon(true);
+      return t;
+    });
+  private long used = 0;
+  private long loads = 0;
+  private long evictions = 0;
+
+  /**
+   * @param directory - where the dictionaries are
+   * @param budget - bytes of compiled files that may be mapped at once; the
+   *        last dictionary loaded is kept even if it weighs more
+   * @param prepare - called on each dictionary loaded before it is used,
+   *        such as to choose its engine
+   */
+  public Dictionaries(Path directory, long budget,
+    Consumer<Autocorrect> prepare) {
+    if (budget < 0) {
+      throw new IllegalArgumentException("Can't keep " + budget + " bytes");
+    }
+
+    this.directory = directory;
+    this.budget = budget;
+    this.prepare = prepare;
+  }
+
+  /**
+   * Finds a dictionary, loading it if it isn't loaded.
+   *
+   * @param name - letters, digits, '_' and '-' only
+   * @return - the dictionary, or null while its corpus is compiled
+   * @throws IllegalArgumentException - if no dictionary has that name
+   * @throws IOException - if it can't be read, compiled or mapped
+   */
+  public Autocorrect get(String name) throws IOException {
+    if (!valid(name)) {
+      throw new IllegalArgumentException("No dictionary named " + name);
+    }
+
+    synchronized (this) {
+      Loaded found = loaded.get(name);
+      if (found != null) {
+        return found.corrector;
+      }
+    }
+
+    if (!Files.isRegularFile(directory.resolve(name + COMPILED))) {
+      compile(name);
+      return null;
+    }
+
+    FutureTask<Loaded> task;
+    boolean mine = false;
+    synchronized (this) {
+      Loaded found = loaded.get(name);
+      if (found != null) {
+        return found.corrector;
+      }
+
+      task = loading.get(name);
+      if (task == null) {
+        task = new FutureTask<>(() -> load(name));
+        loading.put(name, task);
+        mine = true;
+      }
+    }
+
+    // The thread that asked first loads it, outside the lock
+    if (mine) {
+      task.run();
+    }
+
+    try {
+      return task.get().corrector;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while loading " + name, e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IOException("Can't load " + name, e.getCause());
+    } finally {
+      if (mine) {
+        synchronized (this) {
+          loading.remove(name);
+        }
+      }
+    }
+  }
+
+  /**
+   * Starts compiling a corpus unless it is being compiled, or reports that
+   * it failed to be.
+   *
+   * @param name - a valid name with no compiled file
+   * @throws IllegalArgumentException - if there is no such corpus
+   * @throws IOException - if the last try failed, which is tried again
+   *         when next asked for
+   */
+  private synchronized void compile(String name) throws IOException {
+    Future<?> task = compiling.get(name);
+    if (task == null) {
+      Path corpus = directory.resolve(name + CORPUS);
+      if (!Files.isRegularFile(corpus)) {
+        throw new IllegalArgumentException("No dictionary named " + name);
+      }
+
+      compiling.put(name, compiler.submit(() -> {
+        compile(corpus, directory.resolve(name + COMPILED));
+        synchronized (this) {
+          compiling.remove(name);
+        }
+        return null;
+      }));
+      return;
+    }
+
+    // Done and still there only if it failed
+    if (task.isDone()) {
+      compiling.remove(name);
+      try {
+        task.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while compiling " + name, e);
+      } catch (ExecutionException e) {
+        throw new IOException("Can't compile " + name, e.getCause());
+      }
+    }
+  }
+
+  /**
+   * @param corpus - a corpus
+   * @param compiled - where its compiled file goes
+   * @throws IOException - if it can't be read or written
+   */
+  private void compile(Path corpus, Path compiled) throws IOException {
+    // Written aside then moved, so no one maps half a file
+    Path partial = Files.createTempFile(directory, compiled.getFileName()
+      .toString(), ".tmp");
+    try {
+      DictionaryFile.write(CorpusReader.read(corpus, Trie.Layout.ARRAY),
+        partial);
+      Files.move(partial, compiled, StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(partial);
+    }
+  }
+
+  /**
+   * Maps a compiled dictionary, then makes room for it.
+   *
+   * @param name - a valid name
+   * @return - the dictionary loaded
+   * @throws IOException - if it can't be mapped
+   */
+  private Loaded load(String name) throws IOException {
+    Path compiled = directory.resolve(name + COMPILED);
+    Loaded found = new Loaded(DictionaryFile.load(compiled),
+      Files.size(compiled));
+    prepare.accept(found.corrector);
+
+    synchronized (this) {
+      loaded.put(name, found);
+      used += found.weight;
+      loads++;
+
+      // The one just loaded is the most recent, so it goes last
+      Iterator<Loaded> oldest = loaded.values().iterator();
+      while (used > budget && loaded.size() > 1) {
+        used -= oldest.next().weight;
+        oldest.remove();
+        evictions++;
+      }
+    }
+    return found;
+  }
+
+  /**
+   * @param name - a dictionary name
+   * @return - true if it only has letters, digits, '_' and '-', so that it
+   *         names a file in the directory
+   */
+  private static boolean valid(String name) {
+    if (name == null || name.isEmpty()) {
+      return false;
+    }
+
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0'
+        && c <= '9' || c == '_' || c == '-')) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Merges the words each loaded dictionary has learned.
+   */
+  public void flush() {
+    for (Autocorrect corrector : loaded()) {
+      corrector.flush();
+    }
+  }
+
+  /**
+   * @return - the dictionaries loaded, least recently used first
+   */
+  public synchronized List<Autocorrect> loaded() {
+    List<Autocorrect> correctors = new ArrayList<>();
+    for (Loaded l : loaded.values()) {
+      correctors.add(l.corrector);
+    }
+    return correctors;
+  }
+
+  /**
+   * @return - bytes of the compiled files mapped
+   */
+  public synchronized long getUsed() {
+    return used;
+  }
+
+  /**
+   * @return - number of dictionaries loaded so far, reloads included
+   */
+  public synchronized long getLoads() {
+    return loads;
+  }
+
+  /**
+   * @return - number of dictionaries dropped to fit the budget
+   */
+  public synchronized long getEvictions() {
+    return evictions;
+  }
+
+  /**
+   * A dictionary loaded and its weight.
+   *
+   * @author Simon
+   */
+  private static final class Loaded {
+    private final Autocorrect corrector;
+    private final long weight;
+
+    Loaded(Autocorrect corrector, long weight) {
+      this.corrector = corrector;
+      this.weight = weight;
+    }
+  }
+}
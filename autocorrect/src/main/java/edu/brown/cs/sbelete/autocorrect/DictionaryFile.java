@@ -0,0 +1,674 @@
+package edu.brown.cs.sbelete.autocorrect;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Compiled, versioned binary form of an Autocorrect: its trie plus unigram and
+ * bigram counts. A loaded file is memory-mapped and queried in place, so
+ * nothing is deserialized at startup and processes on one host share the same
+ * page cache.
+ *
+ * <p>
+ * All values are big-endian. After a header of six ints (magic, version,
+ * words, nodes, edges, bigrams) come:
+ * <ul>
+ * <li>nodes: first edge, degree with the word flag in bit 16, the number of
+ * words at or below the node, and the largest unigram count at or below it,
+ * as four ints each</li>
+ * <li>edges: every edge character, then every target node</li>
+ * <li>unigrams: one count per word, in iteration order</li>
+ * <li>bigrams: offsets of each word's followers, then (word, count) pairs
+ * sorted by word</li>
+ * </ul>
+ * Words are numbered by their rank in iteration order, which is found while
+ * walking the trie from the word counts of the skipped subtrees. Nodes can
+ * therefore be shared, and a minimized trie compiles to a minimized file.
+ * Offsets are ints and the file is mapped as one buffer, so it can be at
+ * most {@link #MAX_SIZE} bytes.
+ *
+ * @author Simon
+ */
+public final class DictionaryFile implements Counts {
+
+  /** Format version written and understood by this class. */
+  public static final int VERSION = 2;
+
+  /** Largest file that can be written or loaded, just under 2 GB. */
+  public static final long MAX_SIZE = Integer.MAX_VALUE;
+
+  private static final int MAGIC = 0x41434446; // "ACDF"
+  private static final int HEADER = 24;
+  private static final int NODE = 16;
+  private static final int DEGREE = 0xFFFF;
+  private static final int WORD = 0x10000;
+
+  private final ByteBuffer buffer;
+  private final int words;
+  private final int nodeOffset;
+  private final int keyOffset;
+  private final int targetOffset;
+  private final int unigramOffset;
+  private final int followerOffset;
+  private final int bigramOffset;
+  // Sum of the unigram counts, found when first needed (-1 until then)
+  private volatile long total = -1;
+
+  /**
+   * Reads the header of a mapped file.
+   *
+   * @param buffer - the whole file
+   * @throws IOException - if the file is not a dictionary of this version
+   */
+  private DictionaryFile(ByteBuffer buffer) throws IOException {
+    this.buffer = buffer;
+
+    if (buffer.capacity() < HEADER || buffer.getInt(0) != MAGIC) {
+      throw new IOException("Not a compiled dictionary");
+    }
+    if (buffer.getInt(Integer.BYTES) != VERSION) {
+      throw new IOException("Unsupported dictionary version "
+        + buffer.getInt(Integer.BYTES) + ", recompile it");
+    }
+
+    words = buffer.getInt(2 * Integer.BYTES);
+    int nodes = buffer.getInt(3 * Integer.BYTES);
+    int edges = buffer.getInt(4 * Integer.BYTES);
+    int bigrams = buffer.getInt(5 * Integer.BYTES);
+    if (words < 0 || nodes < 0 || edges < 0 || bigrams < 0
+      || size(words, nodes, edges, bigrams) > buffer.capacity()) {
+      throw new IOException("Truncated compiled dictionary");
+    }
+
+    nodeOffset = HEADER;
+    keyOffset = nodeOffset + nodes * NODE;
+    targetOffset = keyOffset + edges * Character.BYTES;
+    unigramOffset = targetOffset + edges * Integer.BYTES;
+    followerOffset = unigramOffset + words * Integer.BYTES;
+    bigramOffset = followerOffset + (words + 1) * Integer.BYTES;
+  }
+
+  /**
+   * Checks to see if a file starts like a compiled dictionary.
+   *
+   * @param path - file to check
+   * @return - true if the file has the dictionary magic number
+   * @throws IOException - if the file can't be read
+   */
+  public static boolean isCompiled(Path path) throws IOException {
+    try (InputStream in = Files.newInputStream(path)) {
+      return new DataInputStream(in).readInt() == MAGIC;
+    } catch (EOFException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Maps a compiled dictionary and returns an Autocorrect that answers
+   * queries directly from the mapped file.
+   *
+   * @param path - a file written by {@link #write(Autocorrect, Path)}
+   * @return - a read-only Autocorrect
+   * @throws IOException - if the file can't be mapped, is not compiled or
+   *         is over the 2 GB limit
+   */
+  public static Autocorrect load(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path,
+      StandardOpenOption.READ)) {
+      if (channel.size() > MAX_SIZE) {
+        throw new IOException(path + " has " + channel.size()
+          + " bytes, over the 2 GB limit of compiled dictionaries");
+      }
+
+      // The mapping stays valid after the channel is closed
+      DictionaryFile file = new DictionaryFile(channel.map(
+        FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+
+      return new Autocorrect(file.node(0), file.words, file);
+    }
+  }
+
+  /**
+   * Compiles the trie and counts of an Autocorrect to a file. The Autocorrect
+   * is annotated with its counts first if it isn't already.
+   *
+   * @param corrector - the Autocorrect to compile
+   * @param path - file to write
+   * @throws IOException - if the file can't be written, or would be over
+   *         the 2 GB limit
+   */
+  public static void write(Autocorrect corrector, Path path)
+    throws IOException {
+    Counts counts = corrector.getCounts();
+    if (!corrector.isAnnotated()) {
+      corrector.annotate(counts::unigram);
+    }
+
+    // Number the distinct nodes breadth first, the base being 0
+    Map<Trie.TrieNode, Integer> ids = new IdentityHashMap<>();
+    List<Trie.TrieNode> nodes = new ArrayList<>();
+    ids.put(corrector.getBase(), 0);
+    nodes.add(corrector.getBase());
+
+    long edges = 0;
+    for (int n = 0; n < nodes.size(); n++) {
+      Trie.TrieNode node = nodes.get(n);
+      edges += node.childCount();
+
+      for (int i = 0; i < node.childCount(); i++) {
+        Trie.TrieNode child = node.childAt(i);
+
+        if (!ids.containsKey(child)) {
+          ids.put(child, nodes.size());
+          nodes.add(child);
+        }
+      }
+    }
+
+    int[] below = new int[nodes.size()];
+    Arrays.fill(below, -1);
+    countWords(corrector.getBase(), ids, below);
+
+    // Rank of each word in iteration order
+    Map<String, Integer> ranks = new HashMap<>();
+    List<String> order = new ArrayList<>(corrector.size());
+    Iterator<String> iter = corrector.iterator();
+    while (iter.hasNext()) {
+      String word = iter.next();
+      ranks.put(word, order.size());
+      order.add(word);
+    }
+
+    // Followers removed from the trie are still counted, and are left out
+    List<List<int[]>> followers = new ArrayList<>(order.size());
+    long bigrams = 0;
+    for (String word : order) {
+      List<int[]> kept = new ArrayList<>();
+      for (Entry<String, Integer> e : counts.followers(word).entrySet()) {
+        Integer rank = ranks.get(e.getKey());
+        if (rank != null) {
+          kept.add(new int[] {rank, e.getValue()});
+        }
+      }
+      kept.sort((a, b) -> Integer.compare(a[0], b[0]));
+
+      followers.add(kept);
+      bigrams += kept.size();
+    }
+
+    long size = size(order.size(), nodes.size(), edges, bigrams);
+    if (size > MAX_SIZE) {
+      throw new IOException(path + " would have " + size
+        + " bytes, over the 2 GB limit of compiled dictionaries");
+    }
+
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+      Files.newOutputStream(path)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(order.size());
+      out.writeInt(nodes.size());
+      out.writeInt((int) edges);
+      out.writeInt((int) bigrams);
+
+      int edge = 0;
+      for (int n = 0; n < nodes.size(); n++) {
+        Trie.TrieNode node = nodes.get(n);
+        out.writeInt(edge);
+        out.writeInt(node.childCount() | (node.isWord() ? WORD : 0));
+        out.writeInt(below[n]);
+        out.writeInt(node.getMaxCount());
+        edge += node.childCount();
+      }
+      for (Trie.TrieNode node : nodes) {
+        for (int i = 0; i < node.childCount(); i++) {
+          out.writeChar(node.keyAt(i));
+        }
+      }
+      for (Trie.TrieNode node : nodes) {
+        for (int i = 0; i < node.childCount(); i++) {
+          out.writeInt(ids.get(node.childAt(i)));
+        }
+      }
+
+      for (String word : order) {
+        out.writeInt(counts.unigram(word));
+      }
+
+      int start = 0;
+      for (List<int[]> kept : followers) {
+        out.writeInt(start);
+        start += kept.size();
+      }
+      out.writeInt(start);
+
+      for (List<int[]> kept : followers) {
+        for (int[] pair : kept) {
+          out.writeInt(pair[0]);
+          out.writeInt(pair[1]);
+        }
+      }
+    }
+  }
+
+  /**
+   * @param words - number of words
+   * @param nodes - number of nodes
+   * @param edges - number of edges
+   * @param bigrams - number of (word, count) pairs
+   * @return - bytes of a file of that many
+   */
+  private static long size(long words, long nodes, long edges, long bigrams) {
+    return HEADER + nodes * NODE + edges * (Character.BYTES + Integer.BYTES)
+      + words * Integer.BYTES + (words + 1) * Integer.BYTES + bigrams * 2
+      * Integer.BYTES;
+  }
+
+  /**
+   * Fills in the number of words at or below each node.
+   *
+   * @param node - node to count
+   * @param ids - number of each node
+   * @param below - counts found so far (-1 when unknown)
+   * @return - the count for node
+   */
+  private static int countWords(Trie.TrieNode node,
+    Map<Trie.TrieNode, Integer> ids, int[] below) {
+    int id = ids.get(node);
+    if (below[id] >= 0) {
+      return below[id];
+    }
+
+    int count = 0;
+    if (node.isWord()) {
+      count++;
+    }
+    for (int i = 0; i < node.childCount(); i++) {
+      count += countWords(node.childAt(i), ids, below);
+    }
+
+    below[id] = count;
+    return count;
+  }
+
+  /**
+   * Creates a view of a node.
+   *
+   * @param index - node number
+   * @return - the node
+   */
+  private MappedNode node(int index) {
+    return new MappedNode(index);
+  }
+
+  /**
+   * Finds the rank of a word by walking the trie.
+   *
+   * @param word - word to look up
+   * @return - its rank (-1 if not a word)
+   */
+  private int rank(String word) {
+    if (word == null) {
+      return -1;
+    }
+
+    int[] rank = new int[1];
+    int node = walk(word, rank);
+
+    if (node < 0 || (buffer.getInt(nodeOffset + node * NODE
+      + Integer.BYTES) & WORD) == 0) {
+      return -1;
+    }
+    return rank[0];
+  }
+
+  /**
+   * Finds the node of a string by walking the trie. The words at or below it
+   * have the ranks from rank[0] to rank[0] + {@link #below(int)} - 1.
+   *
+   * @param s - characters to follow
+   * @param rank - receives the rank of the first word at or below the node
+   * @return - the node (-1 if no word starts with s)
+   */
+  private int walk(String s, int[] rank) {
+    int node = 0;
+    rank[0] = 0;
+
+    for (int k = 0; k < s.length(); k++) {
+      int at = nodeOffset + node * NODE;
+      int first = buffer.getInt(at);
+      int degree = buffer.getInt(at + Integer.BYTES);
+
+      if ((degree & WORD) != 0) {
+        rank[0]++;
+      }
+
+      int i = search(first, degree & DEGREE, s.charAt(k));
+      if (i < 0) {
+        return -1;
+      }
+
+      // Skip the words under the smaller siblings
+      for (int j = first; j < first + i; j++) {
+        rank[0] += below(target(j));
+      }
+      node = target(first + i);
+    }
+
+    return node;
+  }
+
+  /**
+   * Binary searches the edge characters of a node.
+   *
+   * @param first - first edge of the node
+   * @param degree - number of edges
+   * @param c - character to find
+   * @return - position among the edges (-1 otherwise)
+   */
+  private int search(int first, int degree, char c) {
+    int low = 0;
+    int high = degree - 1;
+
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      char key = buffer.getChar(keyOffset + (first + mid) * Character.BYTES);
+
+      if (key < c) {
+        low = mid + 1;
+      } else if (key > c) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+
+    return -1;
+  }
+
+  /**
+   * @param edge - edge number
+   * @return - the node the edge leads to
+   */
+  private int target(int edge) {
+    return buffer.getInt(targetOffset + edge * Integer.BYTES);
+  }
+
+  /**
+   * @param node - node number
+   * @return - the number of words at or below the node
+   */
+  private int below(int node) {
+    return buffer.getInt(nodeOffset + node * NODE + 2 * Integer.BYTES);
+  }
+
+  @Override
+  public int id(String word) {
+    return rank(word);
+  }
+
+  @Override
+  public int unigram(int id) {
+    if (id < 0) {
+      return 0;
+    }
+    return buffer.getInt(unigramOffset + id * Integer.BYTES);
+  }
+
+  @Override
+  public int bigram(int prev, int id) {
+    return count(2, extend(1, prev, id));
+  }
+
+  /**
+   * Only bigrams are compiled, so the order is always 2.
+   */
+  @Override
+  public int order() {
+    return 2;
+  }
+
+  @Override
+  public long total() {
+    long sum = total;
+    if (sum < 0) {
+      sum = 0;
+      for (int rank = 0; rank < words; rank++) {
+        sum += buffer.getInt(unigramOffset + rank * Integer.BYTES);
+      }
+      total = sum;
+    }
+    return sum;
+  }
+
+  @Override
+  public int extend(int order, int gram, int id) {
+    if (order != 1 || gram < 0 || id < 0) {
+      return -1;
+    }
+
+    // Bigrams are numbered by their place in the bigram section
+    int low = buffer.getInt(followerOffset + gram * Integer.BYTES);
+    int high = buffer.getInt(followerOffset + (gram + 1) * Integer.BYTES) - 1;
+
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int key = buffer.getInt(bigramOffset + mid * 2 * Integer.BYTES);
+
+      if (key < id) {
+        low = mid + 1;
+      } else if (key > id) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+
+    return -1;
+  }
+
+  @Override
+  public int count(int order, int gram) {
+    if (order == 1) {
+      return unigram(gram);
+    }
+    if (order != 2 || gram < 0) {
+      return 0;
+    }
+    return buffer.getInt(bigramOffset + gram * 2 * Integer.BYTES
+      + Integer.BYTES);
+  }
+
+  @Override
+  public int unigram(String word) {
+    return unigram(rank(word));
+  }
+
+  @Override
+  public int bigram(String prev, String word) {
+    return bigram(rank(prev), rank(word));
+  }
+
+  @Override
+  public Map<String, Integer> followers(String prev) {
+    Map<String, Integer> followers = new HashMap<>();
+    int from = rank(prev);
+    if (from < 0) {
+      return followers;
+    }
+
+    int start = buffer.getInt(followerOffset + from * Integer.BYTES);
+    int end = buffer.getInt(followerOffset + (from + 1) * Integer.BYTES);
+
+    for (int i = start; i < end; i++) {
+      int at = bigramOffset + i * 2 * Integer.BYTES;
+      followers.put(word(buffer.getInt(at)), buffer.getInt(at + Integer.BYTES));
+    }
+
+    return followers;
+  }
+
+  @Override
+  public Map<String, Integer> followers(String prev, String prefix) {
+    Map<String, Integer> followers = new HashMap<>();
+    int from = rank(prev);
+    int[] low = new int[1];
+    int node = walk(prefix, low);
+    if (from < 0 || node < 0) {
+      return followers;
+    }
+
+    // The words starting with prefix are the ranks from low to high
+    int high = low[0] + below(node);
+    int end = buffer.getInt(followerOffset + (from + 1) * Integer.BYTES);
+    int start = buffer.getInt(followerOffset + from * Integer.BYTES);
+    int stop = end;
+
+    // First follower ranked at or after low
+    while (start < stop) {
+      int mid = (start + stop) >>> 1;
+      if (buffer.getInt(bigramOffset + mid * 2 * Integer.BYTES) < low[0]) {
+        start = mid + 1;
+      } else {
+        stop = mid;
+      }
+    }
+
+    for (int i = start; i < end; i++) {
+      int at = bigramOffset + i * 2 * Integer.BYTES;
+      int rank = buffer.getInt(at);
+      if (rank >= high) {
+        break;
+      }
+      followers.put(word(rank), buffer.getInt(at + Integer.BYTES));
+    }
+
+    return followers;
+  }
+
+  /**
+   * Spells out the word with a given rank.
+   *
+   * @param rank - rank in iteration order
+   * @return - the word
+   */
+  private String word(int rank) {
+    StringBuilder sb = new StringBuilder();
+    int node = 0;
+    int left = rank;
+
+    while (true) {
+      int at = nodeOffset + node * NODE;
+      int first = buffer.getInt(at);
+      int degree = buffer.getInt(at + Integer.BYTES);
+
+      if ((degree & WORD) != 0) {
+        if (left == 0) {
+          return sb.toString();
+        }
+        left--;
+      }
+
+      for (int j = first; j < first + (degree & DEGREE); j++) {
+        int child = target(j);
+        if (left < below(child)) {
+          sb.append(buffer.getChar(keyOffset + j * Character.BYTES));
+          node = child;
+          break;
+        }
+        left -= below(child);
+      }
+    }
+  }
+
+  /**
+   * Node read in place from the mapped file. Views are created as the trie is
+   * walked and hold nothing but their number.
+   *
+   * @author Simon
+   */
+  private final class MappedNode extends Trie.TrieNode {
+
+    private final int at;
+
+    /**
+     * @param index - node number
+     */
+    MappedNode(int index) {
+      at = nodeOffset + index * NODE;
+    }
+
+    @Override
+    public boolean validWord() {
+      return isWord();
+    }
+
+    @Override
+    public boolean isWord() {
+      return (buffer.getInt(at + Integer.BYTES) & WORD) != 0;
+    }
+
+    @Override
+    public int getMaxCount() {
+      return buffer.getInt(at + 3 * Integer.BYTES);
+    }
+
+    @Override
+    public Trie.TrieNode get(char c) {
+      int first = buffer.getInt(at);
+      int i = search(first, childCount(), c);
+      if (i < 0) {
+        return null;
+      }
+      return node(target(first + i));
+    }
+
+    @Override
+    public int childCount() {
+      return buffer.getInt(at + Integer.BYTES) & DEGREE;
+    }
+
+    @Override
+    public char keyAt(int i) {
+      int first = buffer.getInt(at);
+      return buffer.getChar(keyOffset + (first + i) * Character.BYTES);
+    }
+
+    @Override
+    public Trie.TrieNode childAt(int i) {
+      return node(target(buffer.getInt(at) + i));
+    }
+
+    @Override
+    protected void put(char c, Trie.TrieNode child) {
+      throw new UnsupportedOperationException("Mapped Tries are read-only");
+    }
+
+    @Override
+    protected void remove(char c) {
+      throw new UnsupportedOperationException("Mapped Tries are read-only");
+    }
+
+    @Override
+    protected void setChildAt(int i, Trie.TrieNode child) {
+      throw new UnsupportedOperationException("Mapped Tries are read-only");
+    }
+  }
+}
@@ -0,0 +1,435 @@
+package edu.brown.cs.sbelete.autocorrect;
+
+import java.util.Arrays;
+
+/**
+ * Counts the words of a corpus and its n-grams up to a given order while it
+ * is read. Words are numbered as they are first seen. An n-gram is an
+ * (n-1)-gram followed by a word, and is numbered within its order as it is
+ * first seen, in an open addressing table from the two numbers packed into a
+ * long. Nothing is boxed and each word is held once. {@link #table(int)}
+ * then freezes the counts into a {@link GramTable}.
+ *
+ * <p>
+ * Words can be looked up from a reused char buffer, so a word already seen
+ * costs no allocation. A GramCounter isn't thread safe; threads count into
+ * their own and {@link #addAll(GramCounter)} merges them.
+ *
+ * @author Simon
+ */
+final class GramCounter {
+
+  private static final int CAPACITY = 1024;
+  private static final long LOW = 0xFFFFFFFFL;
+
+  private final int order;
+
+  private String[] words = new String[CAPACITY];
+  private int[] unigrams = new int[CAPACITY];
+  private int size = 0;
+  // Number plus one of the word in each slot, 0 when empty
+  private int[] slots = new int[2 * CAPACITY];
+
+  // The n-grams of each order from 2, at index order - 2
+  private final Grams[] grams;
+
+  /**
+   * @param order - longest n-grams counted, from 1
+   */
+  GramCounter(int order) {
+    if (order < 1) {
+      throw new IllegalArgumentException("Can't count n-grams of order "
+        + order);
+    }
+
+    this.order = order;
+    grams = new Grams[order - 1];
+    for (int i = 0; i < grams.length; i++) {
+      grams[i] = new Grams();
+    }
+  }
+
+  /**
+   * @return - longest n-grams counted
+   */
+  int order() {
+    return order;
+  }
+
+  /**
+   * @return - number of distinct words
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * @param n - an order from 2
+   * @return - number of distinct n-grams of that order
+   */
+  int grams(int n) {
+    return grams[n - 2].size;
+  }
+
+  /**
+   * @param id - number of a word
+   * @return - the word
+   */
+  String word(int id) {
+    return words[id];
+  }
+
+  /**
+   * @param word - word to look up
+   * @return - its number (-1 if unseen)
+   */
+  int id(String word) {
+    int mask = slots.length - 1;
+    for (int i = spread(word.hashCode()) & mask;; i = (i + 1) & mask) {
+      int id = slots[i] - 1;
+      if (id < 0 || words[id].equals(word)) {
+        return id;
+      }
+    }
+  }
+
+  /**
+   * @return - the state of a sequence with no words yet, to pass to add
+   */
+  int[] start() {
+    int[] history = new int[order];
+    Arrays.fill(history, -1);
+    return history;
+  }
+
+  /**
+   * Counts one more occurrence of a word, and of each n-gram it ends.
+   *
+   * @param chars - buffer holding the word from index 0
+   * @param length - length of the word
+   * @param history - state of the sequence, from {@link #start()}, which
+   *        is moved past the word
+   */
+  void add(char[] chars, int length, int[] history) {
+    int hash = 0;
+    for (int i = 0; i < length; i++) {
+      hash = 31 * hash + chars[i];
+    }
+
+    int mask = slots.length - 1;
+    int i = spread(hash) & mask;
+    int id = slots[i] - 1;
+    while (id >= 0 && !same(words[id], chars, length)) {
+      i = (i + 1) & mask;
+      id = slots[i] - 1;
+    }
+    if (id < 0) {
+      id = insert(i, new String(chars, 0, length));
+    }
+
+    count(id, history);
+  }
+
+  /**
+   * Counts one more occurrence of a word, and of each n-gram it ends.
+   *
+   * @param word - word seen
+   * @param history - state of the sequence, from {@link #start()}, which
+   *        is moved past the word
+   */
+  void add(String word, int[] history) {
+    count(intern(word), history);
+  }
+
+  /**
+   * @param id - number of the word seen
+   * @param history - number of the n-gram of each order ending at the word
+   *        before, at index order - 1 (-1 if none)
+   */
+  private void count(int id, int[] history) {
+    unigrams[id]++;
+
+    // Longest first, so each extends the n-gram one shorter before it moves
+    for (int n = order; n >= 2; n--) {
+      if (history[n - 2] >= 0) {
+        history[n - 1] = grams[n - 2].add(history[n - 2], id, 1);
+      } else {
+        history[n - 1] = -1;
+      }
+    }
+    history[0] = id;
+  }
+
+  /**
+   * Counts one more occurrence of an n-gram whose shorter prefixes were
+   * already counted, such as one spanning two chunks of a corpus.
+   *
+   * @param sequence - words
+   * @param from - first word of the n-gram
+   * @param to - index after its last word
+   */
+  void add(String[] sequence, int from, int to) {
+    int gram = intern(sequence[from]);
+    for (int n = 2; n <= to - from; n++) {
+      int added = 0;
+      if (n == to - from) {
+        added = 1;
+      }
+      gram = grams[n - 2].add(gram, intern(sequence[from + n - 1]), added);
+    }
+  }
+
+  /**
+   * Adds the counts of another counter to these.
+   *
+   * @param other - counts to add, of the same order
+   */
+  void addAll(GramCounter other) {
+    int[] ids = new int[other.size];
+    for (int i = 0; i < other.size; i++) {
+      ids[i] = intern(other.words[i]);
+      unigrams[ids[i]] += other.unigrams[i];
+    }
+
+    // Each order renumbers the n-grams the next one extends
+    int[] renumbered = ids;
+    for (int n = 2; n <= order; n++) {
+      Grams theirs = other.grams[n - 2];
+      int[] next = new int[theirs.size];
+      for (int g = 0; g < theirs.size; g++) {
+        long key = theirs.keys[g];
+        next[g] = grams[n - 2].add(renumbered[(int) (key >>> 32)],
+          ids[(int) (key & LOW)], theirs.counts[g]);
+      }
+      renumbered = next;
+    }
+  }
+
+  /**
+   * Freezes the counts, numbering the words in alphabetical order and each
+   * n-gram after the one it extends.
+   *
+   * @param minCount - n-grams of order 2 and up seen fewer times are dropped,
+   *        along with those extending them
+   * @return - the counts in compressed rows
+   */
+  GramTable table(int minCount) {
+    String[] sorted = Arrays.copyOf(words, size);
+    Arrays.sort(sorted);
+    int[] rank = new int[size];
+    int[] sortedUnigrams = new int[size];
+    for (int r = 0; r < size; r++) {
+      int id = id(sorted[r]);
+      rank[id] = r;
+      sortedUnigrams[r] = unigrams[id];
+    }
+
+    // New number of each n-gram of the order below (-1 if dropped)
+    int[] place = rank;
+    int[][] rows = new int[order + 1][];
+    int[][] followers = new int[order + 1][];
+    int[][] counts = new int[order + 1][];
+    int shorter = size;
+
+    for (int n = 2; n <= order; n++) {
+      Grams level = grams[n - 2];
+
+      // Bucket the kept n-grams by the one they extend, then sort each row
+      int[] row = new int[shorter + 1];
+      int kept = 0;
+      for (int g = 0; g < level.size; g++) {
+        int prefix = place[(int) (level.keys[g] >>> 32)];
+        if (prefix >= 0 && level.counts[g] >= minCount) {
+          row[prefix + 1]++;
+          kept++;
+        }
+      }
+      for (int r = 0; r < shorter; r++) {
+        row[r + 1] += row[r];
+      }
+
+      int[] fill = Arrays.copyOf(row, shorter);
+      long[] packed = new long[kept];
+      for (int g = 0; g < level.size; g++) {
+        int prefix = place[(int) (level.keys[g] >>> 32)];
+        if (prefix >= 0 && level.counts[g] >= minCount) {
+          int word = rank[(int) (level.keys[g] & LOW)];
+          packed[fill[prefix]++] = (long) word << 32 | g;
+        }
+      }
+      for (int r = 0; r < shorter; r++) {
+        Arrays.sort(packed, row[r], row[r + 1]);
+      }
+
+      int[] words = new int[kept];
+      int[] gramCounts = new int[kept];
+      int[] next = new int[level.size];
+      Arrays.fill(next, -1);
+      for (int p = 0; p < kept; p++) {
+        int g = (int) (packed[p] & LOW);
+        words[p] = (int) (packed[p] >>> 32);
+        gramCounts[p] = level.counts[g];
+        next[g] = p;
+      }
+
+      rows[n] = row;
+      followers[n] = words;
+      counts[n] = gramCounts;
+      place = next;
+      shorter = kept;
+    }
+
+    return new GramTable(sorted, sortedUnigrams, rows, followers, counts);
+  }
+
+  /**
+   * @param word - a word
+   * @return - its number, given the next one if unseen
+   */
+  private int intern(String word) {
+    int mask = slots.length - 1;
+    int i = spread(word.hashCode()) & mask;
+    int id = slots[i] - 1;
+    while (id >= 0 && !words[id].equals(word)) {
+      i = (i + 1) & mask;
+      id = slots[i] - 1;
+    }
+    if (id < 0) {
+      id = insert(i, word);
+    }
+    return id;
+  }
+
+  /**
+   * @param slot - empty slot the word hashes to
+   * @param word - a word not seen before
+   * @return - its number
+   */
+  private int insert(int slot, String word) {
+    if (size == words.length) {
+      words = Arrays.copyOf(words, 2 * size);
+      unigrams = Arrays.copyOf(unigrams, 2 * size);
+    }
+
+    int id = size++;
+    words[id] = word;
+    slots[slot] = id + 1;
+
+    if (2 * size > slots.length) {
+      slots = new int[2 * slots.length];
+      int mask = slots.length - 1;
+      for (int w = 0; w < size; w++) {
+        int i = spread(words[w].hashCode()) & mask;
+        while (slots[i] != 0) {
+          i = (i + 1) & mask;
+        }
+        slots[i] = w + 1;
+      }
+    }
+    return id;
+  }
+
+  /**
+   * @param word - a word
+   * @param chars - buffer holding another from index 0
+   * @param length - its length
+   * @return - true if they are the same
+   */
+  private static boolean same(String word, char[] chars, int length) {
+    if (word.length() != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (word.charAt(i) != chars[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @param hash - hash of a word
+   * @return - the hash with its high bits folded into the low ones
+   */
+  static int spread(int hash) {
+    return hash ^ (hash >>> 16);
+  }
+
+  /**
+   * The n-grams of one order, each the number of a shorter n-gram and of the
+   * word after it, numbered as they are first seen.
+   *
+   * @author Simon
+   */
+  private static final class Grams {
+
+    private long[] keys = new long[CAPACITY];
+    private int[] counts = new int[CAPACITY];
+    private int size = 0;
+    // Number plus one of the n-gram in each slot, 0 when empty
+    private int[] slots = new int[2 * CAPACITY];
+
+    /**
+     * Adds to the count of an n-gram.
+     *
+     * @param prefix - number of the n-gram it extends
+     * @param id - number of the word after it
+     * @param count - times seen, 0 to only number it
+     * @return - number of the n-gram
+     */
+    int add(int prefix, int id, int count) {
+      long key = (long) prefix << 32 | id;
+      int mask = slots.length - 1;
+      int i = mix(key) & mask;
+      int g = slots[i] - 1;
+      while (g >= 0 && keys[g] != key) {
+        i = (i + 1) & mask;
+        g = slots[i] - 1;
+      }
+
+      if (g < 0) {
+        g = insert(i, key);
+      }
+      counts[g] += count;
+      return g;
+    }
+
+    /**
+     * @param slot - empty slot the key hashes to
+     * @param key - an n-gram not seen before
+     * @return - its number
+     */
+    private int insert(int slot, long key) {
+      if (size == keys.length) {
+        keys = Arrays.copyOf(keys, 2 * size);
+        counts = Arrays.copyOf(counts, 2 * size);
+      }
+
+      int g = size++;
+      keys[g] = key;
+      slots[slot] = g + 1;
+
+      if (2 * size > slots.length) {
+        slots = new int[2 * slots.length];
+        int mask = slots.length - 1;
+        for (int k = 0; k < size; k++) {
+          int i = mix(keys[k]) & mask;
+          while (slots[i] != 0) {
+            i = (i + 1) & mask;
+          }
+          slots[i] = k + 1;
+        }
+      }
+      return g;
+    }
+
+    /**
+     * @param key - a packed n-gram
+     * @return - a hash of it, mixing every bit
+     */
+    private static int mix(long key) {
+      long h = key * 0x9E3779B97F4A7C15L;
+      return (int) (h ^ (h >>> 32));
+    }
+  }
+}
@@ -0,0 +1,194 @@
+package edu.brown.cs.sbelete.autocorrect;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Frozen n-gram counts, built by a {@link GramCounter}. Words are numbered in
+ * alphabetical order. The n-grams of each order from 2 are laid out in
+ * compressed sparse rows, one row per n-gram of the order below: an array of
+ * offsets, then the numbers and counts of the words extending each, sorted,
+ * in two parallel int arrays. An n-gram is numbered by its place in those
+ * arrays and costs eight bytes, and the followers of a word starting with a
+ * prefix are a contiguous run of its row.
+ *
+ * <p>
+ * The table never changes, so any number of threads can read it.
+ *
+ * @author Simon
+ */
+final class GramTable implements Counts {
+
+  private final String[] words;
+  private final int[] unigrams;
+  private final long total;
+  // Number plus one of the word in each slot, 0 when empty
+  private final int[] slots;
+  // The n-grams of each order from 2, at index order
+  private final int[][] rows;
+  private final int[][] followers;
+  private final int[][] counts;
+
+  /**
+   * @param words - the words, sorted
+   * @param unigrams - count of each word
+   * @param rows - for each order from 2, start of the n-grams extending each
+   *        n-gram of the order below, then the end
+   * @param followers - for each order from 2, the word ending each n-gram
+   * @param counts - for each order from 2, the count of each n-gram
+   */
+  GramTable(String[] words, int[] unigrams, int[][] rows, int[][] followers,
+    int[][] counts) {
+    this.words = words;
+    this.unigrams = unigrams;
+    this.rows = rows;
+    this.followers = followers;
+    this.counts = counts;
+
+    long sum = 0;
+    for (int count : unigrams) {
+      sum += count;
+    }
+    total = sum;
+
+    int capacity = Integer.highestOneBit(Math.max(1, words.length)) * 4;
+    slots = new int[capacity];
+    for (int w = 0; w < words.length; w++) {
+      int i = GramCounter.spread(words[w].hashCode()) & (capacity - 1);
+      while (slots[i] != 0) {
+        i = (i + 1) & (capacity - 1);
+      }
+      slots[i] = w + 1;
+    }
+  }
+
+  /**
+   * @return - the words, sorted
+   */
+  List<String> words() {
+    return Arrays.asList(words);
+  }
+
+  /**
+   * @param order - an order from 2
+   * @return - number of distinct n-grams of that order kept
+   */
+  int grams(int order) {
+    return followers[order].length;
+  }
+
+  @Override
+  public int order() {
+    return rows.length - 1;
+  }
+
+  @Override
+  public long total() {
+    return total;
+  }
+
+  @Override
+  public int id(String word) {
+    if (word == null) {
+      return -1;
+    }
+
+    int mask = slots.length - 1;
+    for (int i = GramCounter.spread(word.hashCode()) & mask;; i = (i + 1)
+      & mask) {
+      int id = slots[i] - 1;
+      if (id < 0 || words[id].equals(word)) {
+        return id;
+      }
+    }
+  }
+
+  @Override
+  public int extend(int order, int gram, int id) {
+    if (gram < 0 || id < 0 || order < 1 || order >= order()) {
+      return -1;
+    }
+
+    int[] row = rows[order + 1];
+    int at = Arrays.binarySearch(followers[order + 1], row[gram],
+      row[gram + 1], id);
+    if (at < 0) {
+      return -1;
+    }
+    return at;
+  }
+
+  @Override
+  public int count(int order, int gram) {
+    if (gram < 0 || order < 1 || order > order()) {
+      return 0;
+    }
+    if (order == 1) {
+      return unigrams[gram];
+    }
+    return counts[order][gram];
+  }
+
+  @Override
+  public int unigram(int id) {
+    return count(1, id);
+  }
+
+  @Override
+  public int bigram(int prev, int id) {
+    return count(2, extend(1, prev, id));
+  }
+
+  @Override
+  public int unigram(String word) {
+    return unigram(id(word));
+  }
+
+  @Override
+  public int bigram(String prev, String word) {
+    return bigram(id(prev), id(word));
+  }
+
+  @Override
+  public Map<String, Integer> followers(String prev) {
+    Map<String, Integer> found = new HashMap<>();
+    int from = id(prev);
+    if (from >= 0 && order() >= 2) {
+      for (int i = rows[2][from]; i < rows[2][from + 1]; i++) {
+        found.put(words[followers[2][i]], counts[2][i]);
+      }
+    }
+    return found;
+  }
+
+  @Override
+  public Map<String, Integer> followers(String prev, String prefix) {
+    Map<String, Integer> found = new HashMap<>();
+    int from = id(prev);
+    if (from < 0 || order() < 2) {
+      return found;
+    }
+
+    // The words starting with prefix are numbered from low
+    int low = Arrays.binarySearch(words, prefix);
+    if (low < 0) {
+      low = -low - 1;
+    }
+    int end = rows[2][from + 1];
+    int start = Arrays.binarySearch(followers[2], rows[2][from], end, low);
+    if (start < 0) {
+      start = -start - 1;
+    }
+
+    for (int i = start; i < end; i++) {
+      String word = words[followers[2][i]];
+      if (!word.startsWith(prefix)) {
+        break;
+      }
+      found.put(word, counts[2][i]);
+    }
+    return found;
+  }
+}
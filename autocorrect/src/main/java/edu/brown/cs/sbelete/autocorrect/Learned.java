@@ -0,0 +1,219 @@
+package edu.brown.cs.sbelete.autocorrect;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Counts learned from accepted suggestions while an Autocorrect is in use,
+ * kept apart from the counts it was built with. They are added to those when
+ * ranking, and words that weren't in the dictionary are kept in a small trie
+ * of their own that queries walk after the main one.
+ *
+ * <p>
+ * A Learned never changes once made. Learning more makes a new one holding
+ * the old counts and the new, which is then published in place of the old,
+ * so queries read one snapshot throughout and are never blocked by writers.
+ * The new one shares all of the old but the paths to the counts and words
+ * a batch changes, so learning a batch costs its size and not that of all
+ * learned before.
+ *
+ * @author Simon
+ */
+final class Learned {
+
+  /** Nothing learned yet. */
+  static final Learned NONE = new Learned(new Trie(new ArrayList<String>(),
+    Trie.Layout.ARRAY), PersistentMap.<String, Integer>empty(),
+    PersistentMap.<String, PersistentMap<String, Integer>>empty(), 0, 0, 0);
+
+  // Words learned that the dictionary doesn't hold
+  private final Trie words;
+  // Count added to each word, and to each pair by its first word
+  private final PersistentMap<String, Integer> unigrams;
+  private final PersistentMap<String, PersistentMap<String, Integer>> bigrams;
+  private final long total;
+  private final int maxUnigram;
+  private final long version;
+
+  /**
+   * @param words - the words learned that aren't in the dictionary
+   * @param unigrams - count added to each word
+   * @param bigrams - count added to each word after another, by the other
+   * @param total - number of words learned, counting repeats
+   * @param maxUnigram - largest count added to a word
+   * @param version - number of batches learned
+   */
+  private Learned(Trie words, PersistentMap<String, Integer> unigrams,
+    PersistentMap<String, PersistentMap<String, Integer>> bigrams,
+    long total, int maxUnigram, long version) {
+    this.words = words;
+    this.unigrams = unigrams;
+    this.bigrams = bigrams;
+    this.total = total;
+    this.maxUnigram = maxUnigram;
+    this.version = version;
+  }
+
+  /**
+   * Copies these counts with a batch of sequences added, sharing all of this
+   * snapshot but the paths to the counts and words the batch changes.
+   *
+   * @param batch - sequences of words accepted, each in order after the word
+   *        before it (null if none), which is only counted as part of a pair
+   * @param known - checks if a word is in the dictionary
+   * @return - the counts learned, this one included
+   */
+  Learned with(Collection<List<String>> batch, Predicate<String> known) {
+    PersistentMap<String, Integer> u = unigrams;
+    PersistentMap<String, PersistentMap<String, Integer>> b = bigrams;
+    List<String> added = new ArrayList<>();
+    long sum = total;
+    int max = maxUnigram;
+
+    for (List<String> sequence : batch) {
+      String prev = sequence.get(0);
+      for (String word : sequence.subList(1, sequence.size())) {
+        int count = count(u.get(word)) + 1;
+        u = u.with(word, count);
+        max = Math.max(max, count);
+        sum++;
+
+        if (count == 1 && !known.test(word)) {
+          added.add(word);
+        }
+        if (prev != null) {
+          PersistentMap<String, Integer> followers = b.get(prev);
+          if (followers == null) {
+            followers = PersistentMap.empty();
+          }
+          b = b.with(prev, followers.with(word, count(followers.get(word))
+            + 1));
+        }
+        prev = word;
+      }
+    }
+
+    Trie learned = words;
+    if (!added.isEmpty()) {
+      learned = words.with(added);
+    }
+    return new Learned(learned, u, b, sum, max, version + 1);
+  }
+
+  /**
+   * @return - the words learned that aren't in the dictionary, which must not
+   *         be changed
+   */
+  Trie words() {
+    return words;
+  }
+
+  /**
+   * @param word - a word
+   * @return - true if it was learned and isn't in the dictionary
+   */
+  boolean contains(String word) {
+    return words.contains(word);
+  }
+
+  /**
+   * @param prefix - start of the words wanted
+   * @return - the words learned that aren't in the dictionary and start with
+   *         prefix, in order
+   */
+  List<String> completions(String prefix) {
+    List<String> found = new ArrayList<>();
+    Trie.TrieNode node = words.getNode(prefix);
+    if (node != null) {
+      Iterator<String> iter = words.new TrieIterator(node, prefix);
+      while (iter.hasNext()) {
+        found.add(iter.next());
+      }
+    }
+    return found;
+  }
+
+  /**
+   * @param word - a word
+   * @return - the count added to it
+   */
+  int unigram(String word) {
+    return count(unigrams.get(word));
+  }
+
+  /**
+   * @param prev - the previous word (null if none)
+   * @param word - the following word
+   * @return - the count added to the pair
+   */
+  int bigram(String prev, String word) {
+    if (prev == null) {
+      return 0;
+    }
+
+    PersistentMap<String, Integer> followers = bigrams.get(prev);
+    if (followers == null) {
+      return 0;
+    }
+    return count(followers.get(word));
+  }
+
+  /**
+   * @param count - a count (null if none)
+   * @return - the count, 0 if none
+   */
+  private static int count(Integer count) {
+    if (count == null) {
+      return 0;
+    }
+    return count;
+  }
+
+  /**
+   * @param prev - the previous word (null if none)
+   * @param prefix - start of the followers wanted
+   * @return - the words starting with prefix learned after prev
+   */
+  List<String> followers(String prev, String prefix) {
+    List<String> found = new ArrayList<>();
+    if (prev == null) {
+      return found;
+    }
+
+    PersistentMap<String, Integer> followers = bigrams.get(prev);
+    if (followers != null) {
+      followers.forEach((word, count) -> {
+        if (word.startsWith(prefix)) {
+          found.add(word);
+        }
+      });
+    }
+    return found;
+  }
+
+  /**
+   * @return - number of words learned, counting repeats
+   */
+  long total() {
+    return total;
+  }
+
+  /**
+   * @return - number of batches learned, which tells snapshots of the same
+   *         Autocorrect apart
+   */
+  long version() {
+    return version;
+  }
+
+  /**
+   * @return - largest count added to any one word, which bounds how much a
+   *         word's count has grown
+   */
+  int maxUnigram() {
+    return maxUnigram;
+  }
+}
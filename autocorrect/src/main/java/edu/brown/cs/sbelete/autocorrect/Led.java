@@ -1,19 +1,31 @@
 package edu.brown.cs.sbelete.autocorrect;
 
 import java.util.Comparator;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
  * Class to make for Led making it a comparable.
  *
+ * <p>
+ * Distances to words of up to 64 characters use the bit-parallel algorithm
+ * of Myers, as formulated by Hyyro, with the bitmask of the word computed
+ * once. Longer words use a DP restricted to the band of the bound. Distances
+ * used for comparing are kept in an open-addressing table, so comparisons
+ * don't allocate.
+ *
  * @author Simon
  *
  */
 public class Led implements Comparator<String> {
 
-  private Map<String, Integer> led = new HashMap<>();
-  private String word;
+  private static final int CAPACITY = 16;
+
+  private final String word;
+  private final CharMasks masks;
+
+  // Distances already computed by compare
+  private String[] seen = new String[CAPACITY];
+  private int[] distances = new int[CAPACITY];
+  private int count = 0;
 
   /**
    * Constructor for Led
@@ -22,6 +34,7 @@ public class Led implements Comparator<String> {
    */
   public Led(String word) {
     this.word = word;
+    this.masks = new CharMasks(word, 0);
   }
 
   /**
@@ -31,33 +44,256 @@ public class Led implements Comparator<String> {
    * @return - returns the led value
    */
   public int led(String s) {
-    int length1 = s.length();
-    int length2 = word.length();
+    return led(s, Integer.MAX_VALUE - 1);
+  }
+
+  /**
+   * Calculates the led between string and word, stopping once it is known
+   * to be above bound.
+   *
+   * @param s - string
+   * @param bound - largest distance of interest
+   * @return - the led value, or bound + 1 if it is larger than bound
+   */
+  public int led(CharSequence s, int bound) {
+    int m = word.length();
+    int n = s.length();
+
+    if (Math.abs(m - n) > bound) {
+      return bound + 1;
+    }
+    if (m == 0) {
+      return n;
+    }
+    if (m > Long.SIZE) {
+      return banded(word, s, bound);
+    }
+
+    // Vertical deltas of the column, +1 and -1 bits
+    long pv = -1L;
+    long mv = 0;
+    long last = 1L << (m - 1);
+    int score = m;
+
+    for (int j = 0; j < n; j++) {
+      long eq = masks.mask(s.charAt(j));
+      long xv = eq | mv;
+      long xh = (((eq & pv) + pv) ^ pv) | eq;
+      long ph = mv | ~(xh | pv);
+      long mh = pv & xh;
+
+      if ((ph & last) != 0) {
+        score++;
+      } else if ((mh & last) != 0) {
+        score--;
+      }
+
+      // Each column of the first row is one more than the last
+      ph = (ph << 1) | 1;
+      mh <<= 1;
+      pv = mh | ~(xv | ph);
+      mv = ph & xv;
+
+      // The rest of s lowers the score by at most one per character
+      if (score - (n - j - 1) > bound) {
+        return bound + 1;
+      }
+    }
+
+    return score;
+  }
+
+  /**
+   * Calculates the least led between word and any prefix of a string, which
+   * is how close the string comes to completing word typed with typos.
+   *
+   * @param s - string
+   * @param bound - largest distance of interest
+   * @return - the least led, or bound + 1 if it is larger than bound
+   */
+  public int prefixLed(CharSequence s, int bound) {
+    int m = word.length();
+    int n = s.length();
+    if (m > Long.SIZE) {
+      return prefixDp(word, s, bound);
+    }
+
+    // The same columns as led, one per prefix of s
+    long pv = -1L;
+    long mv = 0;
+    long last = 1L << (Math.max(1, m) - 1);
+    int score = m;
+    int least = m;
+
+    for (int j = 0; j < n && m > 0; j++) {
+      long eq = masks.mask(s.charAt(j));
+      long xv = eq | mv;
+      long xh = (((eq & pv) + pv) ^ pv) | eq;
+      long ph = mv | ~(xh | pv);
+      long mh = pv & xh;
+
+      if ((ph & last) != 0) {
+        score++;
+      } else if ((mh & last) != 0) {
+        score--;
+      }
+      least = Math.min(least, score);
+
+      ph = (ph << 1) | 1;
+      mh <<= 1;
+      pv = mh | ~(xv | ph);
+      mv = ph & xv;
+
+      // Longer prefixes are further than their extra length from word
+      if (least > bound && j + 1 - m >= bound) {
+        return bound + 1;
+      }
+    }
+
+    return Math.min(least, bound + 1);
+  }
+
+  /**
+   * The least led between a and a prefix of b, by a DP over every cell.
+   *
+   * @param a - first string
+   * @param b - second string, whose prefixes are compared
+   * @param bound - largest distance of interest
+   * @return - the least distance, or bound + 1 if it is larger than bound
+   */
+  private static int prefixDp(CharSequence a, CharSequence b, int bound) {
+    int m = a.length();
+    // Distance from each prefix of a to the prefix of b read so far
+    int[] column = new int[m + 1];
+    for (int i = 0; i <= m; i++) {
+      column[i] = i;
+    }
+    int least = m;
+
+    for (int j = 1; j <= b.length(); j++) {
+      int diagonal = column[0];
+      column[0] = j;
+      for (int i = 1; i <= m; i++) {
+        int up = column[i];
+        int value = diagonal;
+        if (a.charAt(i - 1) != b.charAt(j - 1)) {
+          value = Math.min(Math.min(value, up), column[i - 1]) + 1;
+        }
+        column[i] = value;
+        diagonal = up;
+      }
+      least = Math.min(least, column[m]);
+    }
+
+    return Math.min(least, bound + 1);
+  }
+
+  /**
+   * Levenshtein distance between two strings.
+   *
+   * @param a - first string
+   * @param b - second string
+   * @return - the number of insertions, deletions and substitutions
+   */
+  public static int distance(CharSequence a, CharSequence b) {
+    return new Led(a.toString()).led(b, Integer.MAX_VALUE - 1);
+  }
+
+  /**
+   * DP over the cells within bound of the diagonal, keeping two rows.
+   *
+   * @param a - first string
+   * @param b - second string
+   * @param bound - largest distance of interest
+   * @return - the distance, or bound + 1 if it is larger than bound
+   */
+  private static int banded(CharSequence a, CharSequence b, int bound) {
+    int n = b.length();
+    int over = bound + 1;
+    int[] prev = new int[n + 1];
+    int[] row = new int[n + 1];
 
-    int[][] ledValue = new int[length1][length2];
+    for (int k = 0; k <= n; k++) {
+      prev[k] = Math.min(k, over);
+    }
+
+    for (int i = 1; i <= a.length(); i++) {
+      int from = Math.max(1, i - bound);
+      int to = (int) Math.min(n, (long) i + bound);
+      // Cells left of the band are out of bound
+      row[from - 1] = Math.min(i, over);
+      if (from > 1) {
+        row[from - 1] = over;
+      }
+      int min = row[from - 1];
+
+      for (int k = from; k <= to; k++) {
+        int value = prev[k - 1];
+        if (a.charAt(i - 1) != b.charAt(k - 1)) {
+          value = Math.min(Math.min(value, prev[k]), row[k - 1]) + 1;
+        }
+
+        row[k] = Math.min(value, over);
+        min = Math.min(min, row[k]);
+      }
+      if (to < n) {
+        row[to + 1] = over;
+      }
+
+      if (min > bound) {
+        return over;
+      }
 
-    // initialize the ledValue
-    for (int x = 1; x < length1; x++) {
-      ledValue[x][0] = x;
+      int[] swap = prev;
+      prev = row;
+      row = swap;
     }
-    for (int y = 1; y < length2; y++) {
-      ledValue[0][y] = y;
+
+    return prev[n];
+  }
+
+  /**
+   * Looks up the led of a string, computing it the first time.
+   *
+   * @param s - string
+   * @return - its led value
+   */
+  private int cached(String s) {
+    int mask = seen.length - 1;
+    int i = s.hashCode() & mask;
+
+    while (seen[i] != null) {
+      if (seen[i].equals(s)) {
+        return distances[i];
+      }
+      i = (i + 1) & mask;
     }
 
-    // Step through the ledValue
-    for (int i = 1; i < length1; i++) {
-      for (int k = 1; k < length2; k++) {
-        ledValue[i][k] = ledValue[i - 1][k - 1];
+    int d = led(s);
+    seen[i] = s;
+    distances[i] = d;
+
+    // Keep the table at most half full
+    if (++count * 2 > seen.length) {
+      String[] oldSeen = seen;
+      int[] oldDistances = distances;
+      seen = new String[oldSeen.length * 2];
+      distances = new int[oldSeen.length * 2];
+      mask = seen.length - 1;
 
-        if (s.charAt(i) != word.charAt(k)) {
-          ledValue[i][k] = Math.min(Math.min(
-            ledValue[i][k], ledValue[i - 1][k]),
-            ledValue[i][k - 1]) + 1;
+      for (int j = 0; j < oldSeen.length; j++) {
+        if (oldSeen[j] != null) {
+          int k = oldSeen[j].hashCode() & mask;
+          while (seen[k] != null) {
+            k = (k + 1) & mask;
+          }
+          seen[k] = oldSeen[j];
+          distances[k] = oldDistances[j];
         }
       }
     }
 
-    return ledValue[length1 - 1][length2 - 1];
+    return d;
   }
 
   @Override
@@ -70,8 +306,8 @@ public class Led implements Comparator<String> {
       return 1;
     }
 
-    int d1 = led.computeIfAbsent(s1, (String x) -> this.led(x));
-    int d2 = led.computeIfAbsent(s2, (String y) -> this.led(y));
+    int d1 = cached(s1);
+    int d2 = cached(s2);
 
     if (d1 != d2) {
       return d1 - d2;
@@ -0,0 +1,342 @@
+package edu.brown.cs.sbelete.autocorrect;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Levenshtein automaton for one query word, in the parametric style of
+ * Schulz and Mihov. A state is the band of the edit distance row around the
+ * diagonal, capped at distance + 1, so states and transitions don't depend on
+ * the query. The transitions for every distance up to {@link #MAX_DISTANCE}
+ * are computed once and shared; a query only keeps, for each of its
+ * characters, the bitmask of positions where it occurs.
+ *
+ * @author Simon
+ */
+public final class LevenshteinAutomaton {
+
+  /** Largest distance with precomputed tables. */
+  public static final int MAX_DISTANCE = 3;
+
+  /** Longest query whose position masks fit in a long. */
+  public static final int MAX_LENGTH = Long.SIZE - 2 * MAX_DISTANCE - 1;
+
+  /** State from which no word can be accepted. */
+  public static final int DEAD = 0;
+
+  private final Table table;
+  private final int length;
+  private final CharMasks masks;
+  private final int start;
+
+  /**
+   * Builds the automaton accepting every word within distance of word.
+   *
+   * @param word - the query
+   * @param distance - largest edit distance accepted
+   */
+  public LevenshteinAutomaton(String word, int distance) {
+    if (!supports(word, distance)) {
+      throw new IllegalArgumentException("No automaton for distance "
+        + distance + " and length " + word.length());
+    }
+
+    table = Tables.TABLES[distance];
+    length = word.length();
+
+    // Bit k is set in the mask of c when the k-th letter (from 1) is c
+    masks = new CharMasks(word, 1);
+
+    start = table.start(length);
+  }
+
+  /**
+   * Checks to see if an automaton can be built for a query.
+   *
+   * @param word - the query
+   * @param distance - largest edit distance
+   * @return - true if the distance has a table and the word fits
+   */
+  public static boolean supports(String word, int distance) {
+    return distance >= 0 && distance <= MAX_DISTANCE
+      && word.length() <= MAX_LENGTH;
+  }
+
+  /**
+   * @return - the state before any character is read
+   */
+  public int start() {
+    return start;
+  }
+
+  /**
+   * Reads one character.
+   *
+   * @param state - current state
+   * @param depth - number of characters read so far
+   * @param c - next character
+   * @return - the next state ({@link #DEAD} if nothing can match)
+   */
+  public int step(int state, int depth, char c) {
+    long mask = masks.mask(c);
+
+    int first = depth + 1 - table.distance;
+    long bits;
+    if (first >= 0) {
+      bits = mask >>> first;
+    } else {
+      bits = mask << -first;
+    }
+
+    int valid = Math.max(0, Math.min(table.width,
+      length - depth + table.distance));
+
+    return table.next(state, (int) bits & table.full, valid);
+  }
+
+  /**
+   * Checks to see if the characters read are within distance of the query.
+   *
+   * @param state - current state
+   * @param depth - number of characters read
+   * @return - true if the word read so far is accepted
+   */
+  public boolean accepts(int state, int depth) {
+    return distance(state, depth) <= table.distance;
+  }
+
+  /**
+   * Distance between the characters read and the query.
+   *
+   * @param state - current state
+   * @param depth - number of characters read
+   * @return - the distance, or more than the automaton's distance
+   */
+  public int distance(int state, int depth) {
+    int j = length - depth + table.distance;
+    if (j < 0 || j >= table.width) {
+      return table.distance + 1;
+    }
+    return table.value(state, j);
+  }
+
+  /**
+   * Smallest distance any continuation of the characters read can reach.
+   *
+   * @param state - current state
+   * @return - the least value of the state
+   */
+  public int minimum(int state) {
+    return table.minimum(state);
+  }
+
+  /**
+   * Parametric transition table for one distance.
+   *
+   * @author Simon
+   */
+  private static final class Table {
+
+    private final int distance;
+    private final int width;
+    private final int full;
+    private final int inputs;
+    private final List<byte[]> values = new ArrayList<>();
+    private final Map<Integer, Integer> ids = new HashMap<>();
+    private final byte[] bands;
+    private final byte[] minimums;
+    private final int[] next;
+
+    /**
+     * Computes every state reachable from the start states.
+     *
+     * @param distance - largest edit distance
+     */
+    Table(int distance) {
+      this.distance = distance;
+      width = 2 * distance + 1;
+      full = (1 << width) - 1;
+      inputs = (width + 1) << width;
+
+      byte[] dead = new byte[width];
+      Arrays.fill(dead, (byte) (distance + 1));
+      id(dead);
+      for (int m = 0; m <= distance; m++) {
+        id(initial(m));
+      }
+
+      List<int[]> rows = new ArrayList<>();
+      for (int state = 0; state < values.size(); state++) {
+        int[] row = new int[inputs];
+
+        for (int valid = 0; valid <= width; valid++) {
+          for (int bits = 0; bits <= full; bits++) {
+            row[(valid << width) | bits] = id(step(values.get(state), bits,
+              valid));
+          }
+        }
+        rows.add(row);
+      }
+
+      next = new int[rows.size() * inputs];
+      bands = new byte[rows.size() * width];
+      minimums = new byte[rows.size()];
+      for (int state = 0; state < rows.size(); state++) {
+        System.arraycopy(rows.get(state), 0, next, state * inputs, inputs);
+        System.arraycopy(values.get(state), 0, bands, state * width, width);
+
+        minimums[state] = (byte) (distance + 1);
+        for (byte value : values.get(state)) {
+          minimums[state] = (byte) Math.min(minimums[state], value);
+        }
+      }
+    }
+
+    /**
+     * Band of the first row for a query of length m. Position j of the band
+     * is column j - distance of the row.
+     *
+     * @param m - query length
+     * @return - the capped values
+     */
+    private byte[] initial(int m) {
+      byte[] band = new byte[width];
+      for (int j = 0; j < width; j++) {
+        int k = j - distance;
+
+        if (k >= 0 && k <= m) {
+          band[j] = (byte) k;
+        } else {
+          band[j] = (byte) (distance + 1);
+        }
+      }
+      return band;
+    }
+
+    /**
+     * Computes the next band of the row.
+     *
+     * @param band - current band
+     * @param bits - where the character read matches the query
+     * @param valid - number of band positions still inside the query
+     * @return - the next band
+     */
+    private byte[] step(byte[] band, int bits, int valid) {
+      int cap = distance + 1;
+      byte[] result = new byte[width];
+
+      for (int j = 0; j < width; j++) {
+        int value = band[j] + 1;
+        if ((bits & (1 << j)) != 0) {
+          value = band[j];
+        }
+        if (j + 1 < width) {
+          value = Math.min(value, band[j + 1] + 1);
+        }
+        if (j > 0) {
+          value = Math.min(value, result[j - 1] + 1);
+        }
+        if (j >= valid) {
+          value = cap;
+        }
+
+        result[j] = (byte) Math.min(value, cap);
+      }
+
+      return result;
+    }
+
+    /**
+     * Numbers a band, registering it if it is new.
+     *
+     * @param band - capped values
+     * @return - its state
+     */
+    private int id(byte[] band) {
+      int key = key(band);
+      Integer id = ids.get(key);
+
+      if (id == null) {
+        id = values.size();
+        ids.put(key, id);
+        values.add(band);
+      }
+
+      return id;
+    }
+
+    /**
+     * Reads a band as a number in base distance + 2.
+     *
+     * @param band - capped values
+     * @return - a key unique to the band
+     */
+    private int key(byte[] band) {
+      int key = 0;
+      for (byte value : band) {
+        key = key * (distance + 2) + value;
+      }
+      return key;
+    }
+
+    /**
+     * @param m - query length
+     * @return - the start state for that length
+     */
+    int start(int m) {
+      return ids.get(key(initial(Math.min(m, distance))));
+    }
+
+    /**
+     * @param state - current state
+     * @param bits - where the character read matches the query
+     * @param valid - number of band positions still inside the query
+     * @return - the next state
+     */
+    int next(int state, int bits, int valid) {
+      return next[state * inputs + ((valid << width) | bits)];
+    }
+
+    /**
+     * @param state - a state
+     * @param j - band position
+     * @return - the capped distance at that position
+     */
+    int value(int state, int j) {
+      return bands[state * width + j];
+    }
+
+    /**
+     * @param state - a state
+     * @return - the least capped distance of the state
+     */
+    int minimum(int state) {
+      return minimums[state];
+    }
+  }
+
+  /**
+   * Holder computing the tables on first use.
+   *
+   * @author Simon
+   */
+  private static final class Tables {
+
+    private static final Table[] TABLES = new Table[MAX_DISTANCE + 1];
+
+    static {
+      for (int n = 0; n <= MAX_DISTANCE; n++) {
+        TABLES[n] = new Table(n);
+      }
+    }
+
+    /**
+     * Not instantiated.
+     */
+    private Tables() {
+    }
+  }
+}
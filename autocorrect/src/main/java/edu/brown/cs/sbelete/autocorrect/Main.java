@@ -1,12 +1,15 @@
 package edu.brown.cs.sbelete.autocorrect;
 
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.List;
 
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.gson.Gson;
@@ -15,9 +18,19 @@ import freemarker.template.Configuration;
 
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 import joptsimple.OptionException;
 import joptsimple.OptionParser;
@@ -43,7 +56,53 @@ public class Main {
 	/**
 	 * Usage message.
 	 */
-	private static final String USAGE = "Usage: ./run [--gui][--prefix][--whitespace][--smart][--led-num=num] database";
+	private static final String USAGE = "Usage: ./run [--gui][--batch=file][--prefix][--whitespace][--smart][--fuzzy][--led-num=num][--trie=hash|array][--minimize][--compile=file][--led-engine=dp|automaton|deletion_index][--index-distance=num][--index-prefix=num][--parallel-led[=num]][--ngram=num][--prune=num][--dictionaries=dir][--dictionary-memory=MB][--cache=num][--cache-ttl=seconds][--workers=num][--queue=num] database";
+
+	/**
+	 * Number of suggestions shown.
+	 */
+	private static final int SUGGESTIONS = 5;
+
+	/**
+	 * Default MB of named dictionary files kept mapped.
+	 */
+	private static final int DICTIONARY_MEMORY = 1024;
+
+	/**
+	 * Milliseconds between merges of the words learned through /learn.
+	 */
+	private static final int LEARN_INTERVAL = 1000;
+
+	/**
+	 * Status of a request for a dictionary that doesn't exist.
+	 */
+	private static final int NOT_FOUND = 404;
+
+	/**
+	 * Status of a request refused because the server is too busy, or its
+	 * dictionary is being compiled.
+	 */
+	private static final int UNAVAILABLE = 503;
+
+	/**
+	 * Default number of queries that may wait for a worker.
+	 */
+	private static final int QUEUE = 64;
+
+	/**
+	 * Most users whose typing is kept between requests to /auto.
+	 */
+	private static final int SESSIONS = 256;
+
+	/**
+	 * Default number of results kept by each dictionary.
+	 */
+	private static final int CACHE = 10000;
+
+	/**
+	 * Default seconds a result is kept.
+	 */
+	private static final int CACHE_TTL = 60;
 
 	/**
 	 * Command line arguments.
@@ -60,6 +119,35 @@ public class Main {
 	 */
 	private Autocorrect corrector;
 
+	/**
+	 * Named dictionaries that requests can choose (null if none).
+	 */
+	private Dictionaries dictionaries;
+
+	/**
+	 * Runs the queries of /auto (null to run them on the server's threads).
+	 */
+	private QueryPool queries;
+
+	/**
+	 * Options of the queries, replaced as a whole on /update.
+	 */
+	private final AtomicReference<Options> options = new AtomicReference<>(
+			Options.DEFAULT);
+
+	/**
+	 * The word each page is typing, by the session it sends, least recently
+	 * used first.
+	 */
+	private final Map<String, Typing> sessions = Collections.synchronizedMap(
+			new LinkedHashMap<String, Typing>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(
+						Map.Entry<String, Typing> eldest) {
+					return size() > SESSIONS;
+				}
+			});
+
 	/**
 	 * Runs application with command line arguments.
 	 *
@@ -89,13 +177,65 @@ public class Main {
 		OptionSpec<String> filepath = parser.nonOptions().ofType(String.class);
 		parser.accepts("help", "display help message");
 		parser.accepts("gui", "run spark server");
+		OptionSpec<String> batch = parser
+				.accepts("batch", "spell check a file to standard output")
+				.withRequiredArg().ofType(String.class);
 		parser.accepts("prefix", "Activate prefix suggestions");
 		parser.accepts("whitespace", "Activate splitting suggestions");
 		parser.accepts("smart", "Activate smart ordering");
+		parser.accepts("fuzzy", "Complete prefixes within LED of the word");
+		parser.accepts("minimize", "Merge shared suffixes of the trie");
+		OptionSpec<String> engine = parser
+				.accepts("led-engine", "how LED suggestions are found")
+				.withRequiredArg().ofType(String.class).defaultsTo("dp");
+		OptionSpec<Integer> indexDistance = parser
+				.accepts("index-distance", "largest LED of the deletion index")
+				.withRequiredArg().ofType(Integer.class)
+				.defaultsTo(DeletionIndex.DEFAULT_DISTANCE);
+		OptionSpec<Integer> indexPrefix = parser
+				.accepts("index-prefix", "characters indexed per word")
+				.withRequiredArg().ofType(Integer.class)
+				.defaultsTo(DeletionIndex.DEFAULT_PREFIX);
+		OptionSpec<Long> parallel = parser
+				.accepts("parallel-led", "least cost of a DP walk split")
+				.withOptionalArg().ofType(Long.class)
+				.defaultsTo(Autocorrect.PARALLEL_THRESHOLD);
+		OptionSpec<String> compile = parser
+				.accepts("compile", "write a compiled dictionary and exit")
+				.withRequiredArg().ofType(String.class);
 		parser.accepts("spark-port", "spark server port").withRequiredArg()
 				.ofType(int.class);
 		parser.accepts("led-num", "led to start with").withRequiredArg()
 				.ofType(int.class);
+		OptionSpec<String> trie = parser
+				.accepts("trie", "trie node layout (hash or array)")
+				.withRequiredArg().ofType(String.class).defaultsTo("hash");
+		OptionSpec<Integer> ngram = parser
+				.accepts("ngram", "words of context that rank suggestions")
+				.withRequiredArg().ofType(Integer.class).defaultsTo(2);
+		OptionSpec<Integer> prune = parser
+				.accepts("prune", "least count of an n-gram kept")
+				.withRequiredArg().ofType(Integer.class).defaultsTo(1);
+		OptionSpec<String> directory = parser
+				.accepts("dictionaries", "directory of named dictionaries")
+				.withRequiredArg().ofType(String.class);
+		OptionSpec<Integer> memory = parser
+				.accepts("dictionary-memory", "MB of dictionary files mapped")
+				.withRequiredArg().ofType(Integer.class)
+				.defaultsTo(DICTIONARY_MEMORY);
+		OptionSpec<Integer> cache = parser
+				.accepts("cache", "results kept per dictionary, 0 for none")
+				.withRequiredArg().ofType(Integer.class).defaultsTo(CACHE);
+		OptionSpec<Integer> cacheTtl = parser
+				.accepts("cache-ttl", "seconds a result is kept")
+				.withRequiredArg().ofType(Integer.class)
+				.defaultsTo(CACHE_TTL);
+		OptionSpec<Integer> workers = parser
+				.accepts("workers", "threads running the queries of /auto")
+				.withRequiredArg().ofType(Integer.class);
+		OptionSpec<Integer> queue = parser
+				.accepts("queue", "queries of /auto waiting for a worker")
+				.withRequiredArg().ofType(Integer.class).defaultsTo(QUEUE);
 
 		try {
 			// Parse options
@@ -108,30 +248,82 @@ public class Main {
 			}
 
 			// Build autocorrect
-			setupAutocorrect(options.valueOf(filepath));
+			Trie.Layout layout = Trie.Layout.valueOf(options.valueOf(trie)
+					.toUpperCase());
+			Path database = Paths.get(options.valueOf(filepath));
+			if (DictionaryFile.isCompiled(database)) {
+				corrector = DictionaryFile.load(database);
+			} else {
+				setupAutocorrect(options.valueOf(filepath), layout,
+						options.valueOf(ngram), options.valueOf(prune));
+
+				if (options.has("minimize")) {
+					corrector.minimize();
+				}
+			}
+
+			if (options.has(compile)) {
+				DictionaryFile.write(corrector,
+						Paths.get(options.valueOf(compile)));
+				return;
+			}
+
+			Autocorrect.Engine ledEngine = Autocorrect.Engine.valueOf(options
+					.valueOf(engine).toUpperCase());
+			int distance = options.valueOf(indexDistance);
+			int prefix = options.valueOf(indexPrefix);
+			long threshold = options.valueOf(parallel);
+			int results = options.valueOf(cache);
+			int ttl = options.valueOf(cacheTtl);
+			Consumer<Autocorrect> prepare = c -> {
+				if (ledEngine == Autocorrect.Engine.DELETION_INDEX) {
+					c.useDeletionIndex(distance, prefix);
+				} else {
+					c.setEngine(ledEngine);
+				}
+				if (options.has(parallel)) {
+					c.useParallelLed(ForkJoinPool.commonPool(), threshold);
+				}
+				// A batch checks each distinct token once anyway
+				if (results > 0 && !options.has(batch)) {
+					c.useCache(results, ttl, TimeUnit.SECONDS);
+				}
+			};
+			prepare.accept(corrector);
 
-			if (options.has("prefix")) {
-				corrector.setAutocomplete(1);
+			if (options.has(directory)) {
+				dictionaries = new Dictionaries(Paths.get(options
+						.valueOf(directory)),
+						(long) options.valueOf(memory) << 20, prepare);
 			}
-			if (options.has("whitespace")) {
-				corrector.setWhitespace(1);
+			Options start = Options.DEFAULT
+					.withAutocomplete(options.has("prefix"))
+					.withWhitespace(options.has("whitespace"))
+					.withSmart(options.has("smart"))
+					.withFuzzy(options.has("fuzzy"))
+					.withOrder(options.valueOf(ngram));
+			// Whether to run GUI or REPL
+			if (options.has("gui")) {
+				start = start.withLed(3);
 			}
-			if (options.has("smart")) {
-				corrector.setSmart(1);
+			if (options.has(batch)) {
+				start = start.withLed(2);
 			}
 			if (options.has("led-num")) {
 				int led = (int) options.valueOf("led-num");
-				corrector.setLed(led);
+				start = start.withLed(led);
 			}
-			// Whether to run GUI or REPL
-			if (options.has("gui")) {
-				corrector.setLed(3);
+			this.options.set(start);
 
-				if (options.has("led-num")) {
-					int led = (int) options.valueOf("led-num");
-					corrector.setLed(led);
-				}
+			if (options.has(workers)) {
+				queries = new QueryPool(options.valueOf(workers),
+						options.valueOf(queue));
+			}
+
+			if (options.has("gui")) {
 				runSparkServer();
+			} else if (options.has(batch)) {
+				runBatch(Paths.get(options.valueOf(batch)));
 			} else {
 
 				runREPL();
@@ -144,26 +336,15 @@ public class Main {
 	}
 
 	/**
-	 * Sets up trie.
+	 * Sets up trie, reading the corpus on every processor and counting its
+	 * n-grams up to order, without those seen fewer than minCount times.
 	 * 
 	 * @throws IOException
 	 */
-	private void setupAutocorrect(String filepath) throws IOException {
-		Collection<String> words = new ArrayList<String>();
-
-		BufferedReader br = new BufferedReader(new FileReader(filepath));
-
-		String line = br.readLine();
-
-		while (line != null) {
-			words.addAll(Autocorrect.washLine(line));
-			line = br.readLine();
-		}
-		br.close();
-		words.remove("");
-		words.remove(" ");
-		corrector = new Autocorrect(words);
-
+	private void setupAutocorrect(String filepath, Trie.Layout layout,
+			int order, int minCount) throws IOException {
+		corrector = CorpusReader.read(Paths.get(filepath), layout, order,
+				minCount);
 	}
 
 	/**
@@ -184,15 +365,16 @@ public class Main {
 		try {
 			while ((unchanged = input.readLine()) != null) {
 				if (!"".equals(unchanged)) {
-					changed = Autocorrect.washLine(unchanged);
+					changed = Tokenizer.tokens(unchanged);
 					parts = changed.size();
+					suggestions = new ArrayList<>();
+					sb.setLength(0);
 
-					if (parts > 1) {
+					if (parts > 0) {
 						washed = changed.get(parts - 1);
 						suggestions = corrector.suggest(washed,
-								changed.get(parts - 2));
-					} else if (!changed.isEmpty()) {
-						suggestions = corrector.suggest(changed.get(0), null);
+								changed.subList(0, parts - 1), SUGGESTIONS,
+								options.get());
 					}
 
 					for (int i = 0; i < parts - 1; i++) {
@@ -200,11 +382,10 @@ public class Main {
 						sb.append(" ");
 					}
 
-					for (int i = 0; i < suggestions.size() && i < 5; i++) {
-						System.out.println(sb.toString() + suggestions.get(i));
+					for (String suggestion : suggestions) {
+						System.out.println(sb.toString() + suggestion);
 					}
 					System.out.println("");
-					suggestions.clear();
 				}
 			}
 		} catch (IOException e) {
@@ -212,6 +393,16 @@ public class Main {
 		}
 	}
 
+	/**
+	 * Spell checks a file, writing a line per token to standard output.
+	 * 
+	 * @throws IOException
+	 */
+	private void runBatch(Path input) throws IOException {
+		new BatchChecker(corrector, options.get(), SUGGESTIONS).check(input,
+				new OutputStreamWriter(System.out));
+	}
+
 	/**
 	 * Runs gui.
 	 */
@@ -225,6 +416,58 @@ public class Main {
 		Spark.get("/autocorrect", new HomeHandler(), freeMarker);
 		Spark.post("/auto", new AutocorrectHandler());
 		Spark.post("/update", new UpdateAutoHandler());
+		Spark.post("/learn", new LearnHandler());
+		Spark.get("/stats", new StatsHandler());
+
+		// Words learned are merged in batches, off the request threads
+		ScheduledExecutorService flusher = Executors
+				.newSingleThreadScheduledExecutor(r -> {
+					Thread t = new Thread(r, "learn");
+					t.setDaemon(true);
+					return t;
+				});
+		flusher.scheduleWithFixedDelay(() -> {
+			corrector.flush();
+			if (dictionaries != null) {
+				dictionaries.flush();
+			}
+		}, LEARN_INTERVAL, LEARN_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Finds the dictionary a request chose.
+	 *
+	 * @param name
+	 *            the dict parameter (null or empty for the database given)
+	 * @return the dictionary, or null while its corpus is compiled
+	 * @throws IllegalArgumentException
+	 *             if there is no dictionary of that name
+	 */
+	private Autocorrect corrector(String name) {
+		if (name == null || name.isEmpty()) {
+			return corrector;
+		}
+		if (dictionaries == null) {
+			throw new IllegalArgumentException("No dictionary named " + name);
+		}
+
+		try {
+			return dictionaries.get(name);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * @return the database given, then the named dictionaries loaded
+	 */
+	private List<Autocorrect> correctors() {
+		List<Autocorrect> loaded = new ArrayList<>();
+		loaded.add(corrector);
+		if (dictionaries != null) {
+			loaded.addAll(dictionaries.loaded());
+		}
+		return loaded;
 	}
 
 	/**
@@ -253,27 +496,71 @@ public class Main {
 	private class AutocorrectHandler implements Route {
 
 		/**
-		 * Autocorrect.
+		 * Autocorrect. Requests run concurrently, each with the options
+		 * published when it starts, in the dictionary named by dict if given.
+		 * Requests that send a session pick up from the word the same page
+		 * sent last. With workers, the query waits for one, sharing the
+		 * search of an identical query in flight.
 		 *
 		 * @param req
 		 *            request
 		 * @param res
-		 *            unused
+		 *            response, 404 if there is no such dictionary, or 503 if
+		 *            it is being compiled, or if the workers are busy and
+		 *            their queue is full
 		 * @return autocorrect suggestions
 		 */
 		@Override
-		public synchronized Object handle(final Request req, final Response res) {
+		public Object handle(final Request req, final Response res) {
 			QueryParamsMap qm = req.queryMap();
-			String word = qm.value("word");
-			String prev = qm.value("prev");
+			String word = Tokenizer.last(qm.value("word"));
+			// Every word before the one typed, or only prev from older pages
+			String before = qm.value("context");
+			if (before == null) {
+				before = qm.value("prev");
+			}
+			List<String> context = new ArrayList<>();
+			if (before != null) {
+				context = Tokenizer.tokens(before);
+			}
 			List<String> trimmedSuggestions = new ArrayList<>();
 
-			if (!"".equals(word) && word != null) {
-				List<String> suggestions = corrector.suggest(word, prev);
+			Autocorrect chosen;
+			try {
+				chosen = corrector(qm.value("dict"));
+			} catch (IllegalArgumentException e) {
+				res.status(NOT_FOUND);
+				return GSON.toJson(ImmutableList.of(trimmedSuggestions));
+			}
+			if (chosen == null) {
+				res.status(UNAVAILABLE);
+				res.header("Retry-After", "1");
+				return GSON.toJson(ImmutableList.of(trimmedSuggestions));
+			}
+
+			String session = qm.value("session");
+			Typing typing = null;
+			if (session != null) {
+				typing = sessions.computeIfAbsent(session, s -> new Typing());
+			}
+
+			if ("".equals(word)) {
 				trimmedSuggestions = new ArrayList<>();
-				for (int i = 0; i < suggestions.size() && i < 5; i++) {
-					trimmedSuggestions.add(suggestions.get(i));
+			} else if (queries != null) {
+				try {
+					trimmedSuggestions = queries.suggest(chosen, word,
+							context, SUGGESTIONS, options.get(), typing);
+				} catch (RejectedExecutionException e) {
+					res.status(UNAVAILABLE);
+					res.header("Retry-After", "1");
+					return GSON.toJson(ImmutableList.of(trimmedSuggestions));
 				}
+			} else if (typing != null) {
+				trimmedSuggestions = chosen.suggest(word, context,
+						SUGGESTIONS, options.get(), typing);
+			} else {
+				trimmedSuggestions = chosen.suggest(word, context,
+						SUGGESTIONS, options.get());
 			}
 			List<Object> variables = ImmutableList.of(trimmedSuggestions);
 
@@ -281,44 +568,161 @@ public class Main {
 		}
 	}
 
+	/**
+	 * Handler for /learn.
+	 */
+	private class LearnHandler implements Route {
+
+		/**
+		 * Learns the words of a suggestion a user accepted, after the word
+		 * before it, in the dictionary named by dict if given. They rank
+		 * suggestions once the next batch is merged.
+		 *
+		 * @param req
+		 *            request
+		 * @param res
+		 *            response, 404 if there is no such dictionary, or 503 if
+		 *            it is being compiled
+		 * @return the number of words learned
+		 */
+		@Override
+		public Object handle(final Request req, final Response res) {
+			QueryParamsMap qm = req.queryMap();
+			String text = qm.value("words");
+			List<String> words = new ArrayList<>();
+			if (text != null) {
+				words = Tokenizer.tokens(text);
+			}
+
+			String prev = Tokenizer.last(qm.value("prev"));
+			if ("".equals(prev)) {
+				prev = null;
+			}
+
+			Autocorrect chosen;
+			try {
+				chosen = corrector(qm.value("dict"));
+			} catch (IllegalArgumentException e) {
+				res.status(NOT_FOUND);
+				return GSON.toJson(ImmutableList.of(0));
+			}
+			if (chosen == null) {
+				res.status(UNAVAILABLE);
+				res.header("Retry-After", "1");
+				return GSON.toJson(ImmutableList.of(0));
+			}
+
+			chosen.learn(prev, words);
+			return GSON.toJson(ImmutableList.of(words.size()));
+		}
+	}
+
 	private class UpdateAutoHandler implements Route {
 
 		/**
-		 * Autocorrect.
+		 * Publishes options with one setting changed.
 		 *
 		 * @param req
 		 *            request
 		 * @param res
 		 *            unused
-		 * @return autocorrect suggestions
+		 * @return the options now used
 		 */
 		@Override
-		public synchronized Object handle(final Request req, final Response res) {
+		public Object handle(final Request req, final Response res) {
 			QueryParamsMap qm = req.queryMap();
 			String change = qm.value("change");
 			int value = Integer.parseInt(qm.value("value"));
-			switch (change) {
-			case "led":
-				corrector.setLed(value);
-				break;
-			case "whitespace":
-				corrector.setWhitespace(value);
-				break;
-			case "prefix":
-				corrector.setAutocomplete(value);
-				break;
-			case "smart":
-				corrector.setSmart(value);
+
+			Options current = options.updateAndGet(o -> change(o, change,
+					value));
+			// Results found with the options before won't be asked for
+			for (Autocorrect c : correctors()) {
+				c.clearCache();
 			}
 
 			List<Object> variables = ImmutableList.of(Arrays.asList(
-					corrector.getWhitespace(), corrector.getAutocomplete(),
-					corrector.getSmart(), corrector.getLed()));
+					current.getWhitespace(), current.getAutocomplete(),
+					current.getSmart(), current.getLed()));
 
 			return GSON.toJson(variables);
 		}
 	}
 
+	/**
+	 * Handler for /stats.
+	 */
+	private class StatsHandler implements Route {
+
+		/**
+		 * Counts the queries answered from the results kept, over the
+		 * database and the named dictionaries loaded, and those the workers
+		 * shared or refused.
+		 *
+		 * @param req
+		 *            unused
+		 * @param res
+		 *            unused
+		 * @return hits, misses, hit rate and evictions of the results kept,
+		 *         then queries coalesced and rejected (0 without workers)
+		 */
+		@Override
+		public Object handle(final Request req, final Response res) {
+			CacheStats stats = new CacheStats(0, 0, 0, 0, 0, 0);
+			for (Autocorrect c : correctors()) {
+				stats = stats.plus(c.getCacheStats());
+			}
+
+			long coalesced = 0;
+			long rejected = 0;
+			if (queries != null) {
+				coalesced = queries.getCoalesced();
+				rejected = queries.getRejected();
+			}
+
+			return GSON.toJson(ImmutableMap.builder()
+					.put("hits", stats.hitCount())
+					.put("misses", stats.missCount())
+					.put("hitRate", stats.hitRate())
+					.put("evictions", stats.evictionCount())
+					.put("coalesced", coalesced).put("rejected", rejected)
+					.build());
+		}
+	}
+
+	/**
+	 * Changes one setting, the way the GUI names them. Flags are only changed
+	 * by 0 or 1.
+	 *
+	 * @param o
+	 *            current options
+	 * @param change
+	 *            setting to change
+	 * @param value
+	 *            its new value
+	 * @return options with the change
+	 */
+	private static Options change(Options o, String change, int value) {
+		if (!"led".equals(change) && value != 0 && value != 1) {
+			return o;
+		}
+
+		switch (change) {
+		case "led":
+			return o.withLed(value);
+		case "whitespace":
+			return o.withWhitespace(value == 1);
+		case "prefix":
+			return o.withAutocomplete(value == 1);
+		case "smart":
+			return o.withSmart(value == 1);
+		case "fuzzy":
+			return o.withFuzzy(value == 1);
+		default:
+			return o;
+		}
+	}
+
 	/**
 	 * @return freemarker engine
 	 */
@@ -0,0 +1,188 @@
+package edu.brown.cs.sbelete.autocorrect;
+
+/**
+ * Settings of one query: the LED searched, which kinds of suggestions are
+ * made and how they are ordered, and how many words of context rank them.
+ * Options are immutable, so a query reads one consistent set however they
+ * are changed meanwhile, and a change is published by swapping in a new
+ * instance.
+ *
+ * @author Simon
+ */
+public final class Options {
+
+  /** Largest n-gram order that can rank suggestions. */
+  public static final int MAX_ORDER = 4;
+
+  /**
+   * No LED, prefix or whitespace suggestions, ordered by frequency after the
+   * previous word.
+   */
+  public static final Options DEFAULT = new Options(0, false, false, false,
+    2, false);
+
+  private final int led;
+  private final boolean smart;
+  private final boolean whitespace;
+  private final boolean autocomplete;
+  private final int order;
+  private final boolean fuzzy;
+
+  /**
+   * @param led - is the distance we are willing to search
+   * @param smart - order by LED instead of frequency
+   * @param whitespace - suggest splitting the word in two
+   * @param autocomplete - suggest words starting with the word
+   * @param order - n-gram order of the frequency ranking
+   * @param fuzzy - complete prefixes within LED of the word
+   */
+  private Options(int led, boolean smart, boolean whitespace,
+    boolean autocomplete, int order, boolean fuzzy) {
+    if (led < 0) {
+      throw new IllegalArgumentException("Can't set LED to < 0");
+    }
+    if (order < 1 || order > MAX_ORDER) {
+      throw new IllegalArgumentException("Can't set order outside 1 to "
+        + MAX_ORDER);
+    }
+
+    this.led = led;
+    this.smart = smart;
+    this.whitespace = whitespace;
+    this.autocomplete = autocomplete;
+    this.order = order;
+    this.fuzzy = fuzzy;
+  }
+
+  /**
+   * @param value - is the distance we are willing to search
+   * @return - these options with that LED
+   */
+  public Options withLed(int value) {
+    return new Options(value, smart, whitespace, autocomplete, order,
+      fuzzy);
+  }
+
+  /**
+   * @param value - order by LED instead of frequency
+   * @return - these options with that ordering
+   */
+  public Options withSmart(boolean value) {
+    return new Options(led, value, whitespace, autocomplete, order,
+      fuzzy);
+  }
+
+  /**
+   * @param value - suggest splitting the word in two
+   * @return - these options with or without splits
+   */
+  public Options withWhitespace(boolean value) {
+    return new Options(led, smart, value, autocomplete, order, fuzzy);
+  }
+
+  /**
+   * @param value - suggest words starting with the word
+   * @return - these options with or without completions
+   */
+  public Options withAutocomplete(boolean value) {
+    return new Options(led, smart, whitespace, value, order, fuzzy);
+  }
+
+  /**
+   * Sets how many words the frequency ranking looks at: 1 is the word
+   * alone, and 2 ranks by the count after the previous word, then by the
+   * count of the word. From 3, words are scored by stupid backoff over the
+   * last order - 1 words typed.
+   *
+   * @param value - n-gram order, from 1 to {@link #MAX_ORDER}
+   * @return - these options with that order
+   */
+  public Options withOrder(int value) {
+    return new Options(led, smart, whitespace, autocomplete, value,
+      fuzzy);
+  }
+
+  /**
+   * Completes words with typos: with completions and an LED on, words are
+   * suggested if any prefix of theirs is within LED of the word, such as
+   * "accommodation" for "accomodat". They are found in one walk that also
+   * finds the words within LED, instead of two.
+   *
+   * @param value - complete prefixes within LED of the word
+   * @return - these options with or without typos completed
+   */
+  public Options withFuzzy(boolean value) {
+    return new Options(led, smart, whitespace, autocomplete, order, value);
+  }
+
+  /**
+   * @return - the distance searched
+   */
+  public int getLed() {
+    return led;
+  }
+
+  /**
+   * @return - true if ordered by LED
+   */
+  public boolean getSmart() {
+    return smart;
+  }
+
+  /**
+   * @return - true if splits are suggested
+   */
+  public boolean getWhitespace() {
+    return whitespace;
+  }
+
+  /**
+   * @return - true if completions are suggested
+   */
+  public boolean getAutocomplete() {
+    return autocomplete;
+  }
+
+  /**
+   * @return - the n-gram order of the frequency ranking
+   */
+  public int getOrder() {
+    return order;
+  }
+
+  /**
+   * @return - true if prefixes within LED of the word are completed
+   */
+  public boolean getFuzzy() {
+    return fuzzy;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof Options)) {
+      return false;
+    }
+
+    Options other = (Options) o;
+    return led == other.led && smart == other.smart
+      && whitespace == other.whitespace && autocomplete == other.autocomplete
+      && order == other.order && fuzzy == other.fuzzy;
+  }
+
+  @Override
+  public int hashCode() {
+    int hash = led;
+    hash = 2 * hash + (smart ? 1 : 0);
+    hash = 2 * hash + (whitespace ? 1 : 0);
+    hash = 2 * hash + (autocomplete ? 1 : 0);
+    hash = 2 * hash + (fuzzy ? 1 : 0);
+    return MAX_ORDER * hash + order;
+  }
+
+  @Override
+  public String toString() {
+    return "Options[led=" + led + ", smart=" + smart + ", whitespace="
+      + whitespace + ", autocomplete=" + autocomplete + ", order=" + order
+      + ", fuzzy=" + fuzzy + "]";
+  }
+}
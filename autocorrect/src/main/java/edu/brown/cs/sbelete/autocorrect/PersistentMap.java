@@ -0,0 +1,283 @@
+package edu.brown.cs.sbelete.autocorrect;
+
+import java.util.function.BiConsumer;
+
+/**
+ * A map that never changes once made, where a map with one more entry shares
+ * all of this one but the few nodes on the path to it. The keys are spread
+ * over a tree by their hash codes, five bits per level, and each node holds
+ * an entry or a child in only the slots it uses. A lookup or an update visits
+ * at most seven levels, however many entries there are.
+ *
+ * @param <K> - type of the keys
+ * @param <V> - type of the values
+ * @author Simon
+ */
+final class PersistentMap<K, V> {
+
+  private static final int BITS = 5;
+  private static final int MASK = (1 << BITS) - 1;
+
+  private static final PersistentMap<Object, Object> EMPTY =
+    new PersistentMap<>(null, 0);
+
+  // An Entry, a Collision or a Node (null if empty)
+  private final Object root;
+  private final int size;
+
+  /**
+   * @param root - the entries
+   * @param size - their number
+   */
+  private PersistentMap(Object root, int size) {
+    this.root = root;
+    this.size = size;
+  }
+
+  /**
+   * @param <K> - type of the keys
+   * @param <V> - type of the values
+   * @return - the map with no entries
+   */
+  @SuppressWarnings("unchecked")
+  static <K, V> PersistentMap<K, V> empty() {
+    return (PersistentMap<K, V>) EMPTY;
+  }
+
+  /**
+   * @return - number of entries
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * @param key - a key
+   * @return - its value (null if none)
+   */
+  @SuppressWarnings("unchecked")
+  V get(Object key) {
+    int hash = key.hashCode();
+    Object n = root;
+
+    for (int shift = 0; n != null; shift += BITS) {
+      if (n instanceof Entry) {
+        Entry e = (Entry) n;
+        if (e.hash == hash && e.key.equals(key)) {
+          return (V) e.value;
+        }
+        return null;
+      }
+      if (n instanceof Collision) {
+        return (V) ((Collision) n).get(key);
+      }
+
+      Node node = (Node) n;
+      int bit = 1 << ((hash >>> shift) & MASK);
+      if ((node.bitmap & bit) == 0) {
+        return null;
+      }
+      n = node.slots[node.index(bit)];
+    }
+    return null;
+  }
+
+  /**
+   * @param key - a key
+   * @param value - its value
+   * @return - a map of these entries with key mapped to value
+   */
+  PersistentMap<K, V> with(K key, V value) {
+    int[] added = new int[1];
+    Object r = put(root, 0, new Entry(key.hashCode(), key, value), added);
+    return new PersistentMap<>(r, size + added[0]);
+  }
+
+  /**
+   * @param action - called with each key and its value, in no order
+   */
+  @SuppressWarnings("unchecked")
+  void forEach(BiConsumer<? super K, ? super V> action) {
+    forEach(root, (BiConsumer<Object, Object>) action);
+  }
+
+  /**
+   * @param n - a subtree (null if empty)
+   * @param action - called with each of its entries
+   */
+  private static void forEach(Object n, BiConsumer<Object, Object> action) {
+    if (n instanceof Entry) {
+      Entry e = (Entry) n;
+      action.accept(e.key, e.value);
+    } else if (n instanceof Collision) {
+      for (Entry e : ((Collision) n).entries) {
+        action.accept(e.key, e.value);
+      }
+    } else if (n != null) {
+      for (Object slot : ((Node) n).slots) {
+        forEach(slot, action);
+      }
+    }
+  }
+
+  /**
+   * @param n - a subtree (null if empty)
+   * @param shift - bits of the hash used above it
+   * @param e - the entry to put
+   * @param added - set to 1 if its key wasn't in the subtree
+   * @return - a copy of the subtree with e in it
+   */
+  private static Object put(Object n, int shift, Entry e, int[] added) {
+    if (n == null) {
+      added[0] = 1;
+      return e;
+    }
+
+    if (n instanceof Entry) {
+      Entry old = (Entry) n;
+      if (old.hash == e.hash && old.key.equals(e.key)) {
+        return e;
+      }
+      added[0] = 1;
+      if (old.hash == e.hash) {
+        return new Collision(e.hash, new Entry[] {old, e});
+      }
+      return split(old, old.hash, e, shift);
+    }
+
+    if (n instanceof Collision) {
+      Collision c = (Collision) n;
+      if (c.hash == e.hash) {
+        return c.with(e, added);
+      }
+      added[0] = 1;
+      return split(c, c.hash, e, shift);
+    }
+
+    Node node = (Node) n;
+    int bit = 1 << ((e.hash >>> shift) & MASK);
+    int at = node.index(bit);
+    if ((node.bitmap & bit) == 0) {
+      added[0] = 1;
+      Object[] slots = new Object[node.slots.length + 1];
+      System.arraycopy(node.slots, 0, slots, 0, at);
+      slots[at] = e;
+      System.arraycopy(node.slots, at, slots, at + 1, node.slots.length - at);
+      return new Node(node.bitmap | bit, slots);
+    }
+
+    Object[] slots = node.slots.clone();
+    slots[at] = put(slots[at], shift + BITS, e, added);
+    return new Node(node.bitmap, slots);
+  }
+
+  /**
+   * Makes the nodes that tell apart two different hashes.
+   *
+   * @param a - an Entry or a Collision
+   * @param hash - its hash
+   * @param e - an entry of another hash
+   * @param shift - bits of the hashes used above
+   * @return - a node holding both
+   */
+  private static Node split(Object a, int hash, Entry e, int shift) {
+    int i = (hash >>> shift) & MASK;
+    int j = (e.hash >>> shift) & MASK;
+    if (i == j) {
+      return new Node(1 << i, new Object[] {split(a, hash, e, shift + BITS)});
+    }
+    if (i < j) {
+      return new Node(1 << i | 1 << j, new Object[] {a, e});
+    }
+    return new Node(1 << i | 1 << j, new Object[] {e, a});
+  }
+
+  /**
+   * A key and its value.
+   *
+   * @author Simon
+   */
+  private static final class Entry {
+    private final int hash;
+    private final Object key;
+    private final Object value;
+
+    Entry(int hash, Object key, Object value) {
+      this.hash = hash;
+      this.key = key;
+      this.value = value;
+    }
+  }
+
+  /**
+   * Entries whose keys have the same hash.
+   *
+   * @author Simon
+   */
+  private static final class Collision {
+    private final int hash;
+    private final Entry[] entries;
+
+    Collision(int hash, Entry[] entries) {
+      this.hash = hash;
+      this.entries = entries;
+    }
+
+    /**
+     * @param key - a key of this hash
+     * @return - its value (null if none)
+     */
+    Object get(Object key) {
+      for (Entry e : entries) {
+        if (e.key.equals(key)) {
+          return e.value;
+        }
+      }
+      return null;
+    }
+
+    /**
+     * @param e - an entry of this hash
+     * @param added - set to 1 if its key isn't here
+     * @return - a copy with e in it
+     */
+    Collision with(Entry e, int[] added) {
+      for (int i = 0; i < entries.length; i++) {
+        if (entries[i].key.equals(e.key)) {
+          Entry[] replaced = entries.clone();
+          replaced[i] = e;
+          return new Collision(hash, replaced);
+        }
+      }
+
+      added[0] = 1;
+      Entry[] grown = new Entry[entries.length + 1];
+      System.arraycopy(entries, 0, grown, 0, entries.length);
+      grown[entries.length] = e;
+      return new Collision(hash, grown);
+    }
+  }
+
+  /**
+   * The slots used of 32, in order: a bit of bitmap is set for each.
+   *
+   * @author Simon
+   */
+  private static final class Node {
+    private final int bitmap;
+    private final Object[] slots;
+
+    Node(int bitmap, Object[] slots) {
+      this.bitmap = bitmap;
+      this.slots = slots;
+    }
+
+    /**
+     * @param bit - the bit of a slot
+     * @return - where it is, or would be, in slots
+     */
+    int index(int bit) {
+      return Integer.bitCount(bitmap & (bit - 1));
+    }
+  }
+}
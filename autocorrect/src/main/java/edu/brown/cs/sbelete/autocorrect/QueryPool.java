@@ -0,0 +1,181 @@
+package edu.brown.cs.sbelete.autocorrect;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the top-k queries of the server on a fixed number of workers, so that
+ * a burst of keystrokes waits in a bounded queue rather than taking every
+ * server thread, and is refused at once when the queue is full.
+ *
+ * <p>
+ * Identical queries in flight at the same time, such as from users typing
+ * the same word after the same words, share one search: the first starts it
+ * and the others wait for its result. A query is identical when it asks the
+ * same dictionary for the same number of suggestions of the same word, after
+ * the same words, with the same options. Only the first query's typing is
+ * moved on, and the others' pick up from their last word when next used.
+ *
+ * @author Simon
+ */
+final class QueryPool {
+
+  private final ThreadPoolExecutor executor;
+  private final ConcurrentMap<Query, FutureTask<List<String>>> running =
+    new ConcurrentHashMap<>();
+  private final AtomicLong coalesced = new AtomicLong();
+  private final AtomicLong rejected = new AtomicLong();
+
+  /**
+   * @param workers - number of queries searched at once
+   * @param queue - number of queries that may wait for a worker
+   */
+  QueryPool(int workers, int queue) {
+    if (workers < 1 || queue < 1) {
+      throw new IllegalArgumentException("Can't serve with " + workers
+        + " workers and a queue of " + queue);
+    }
+
+    executor = new ThreadPoolExecutor(workers, workers, 0,
+      TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queue), r -> {
+        Thread t = new Thread(r, "query");
+        t.setDaemon(true);
+        return t;
+      });
+  }
+
+  /**
+   * Finds the best suggestions, or waits for the same query already in
+   * flight.
+   *
+   * @param corrector - the dictionary
+   * @param word - the word typed
+   * @param context - the words before it
+   * @param k - number of suggestions wanted
+   * @param opts - the options of the query
+   * @param typing - the user's typing state (null if none)
+   * @return - the suggestions, which must not be changed
+   * @throws RejectedExecutionException - if every worker is busy and the
+   *         queue is full
+   */
+  List<String> suggest(Autocorrect corrector, String word,
+    List<String> context, int k, Options opts, Typing typing) {
+    Query query = new Query(corrector, word, context, k, opts);
+    FutureTask<List<String>> mine = new FutureTask<>(() -> {
+      List<String> found;
+      if (typing == null) {
+        found = corrector.suggest(word, context, k, opts);
+      } else {
+        found = corrector.suggest(word, context, k, opts, typing);
+      }
+      return Collections.unmodifiableList(found);
+    });
+
+    FutureTask<List<String>> task = running.putIfAbsent(query, mine);
+    if (task == null) {
+      task = mine;
+      try {
+        executor.execute(() -> {
+          try {
+            mine.run();
+          } finally {
+            running.remove(query, mine);
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        // Those that joined it are refused with it
+        running.remove(query, mine);
+        mine.cancel(false);
+        rejected.incrementAndGet();
+        throw e;
+      }
+    } else {
+      coalesced.incrementAndGet();
+    }
+
+    try {
+      return task.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while suggesting for "
+        + word, e);
+    } catch (CancellationException e) {
+      rejected.incrementAndGet();
+      throw new RejectedExecutionException("Query of " + word + " refused",
+        e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      if (e.getCause() instanceof Error) {
+        throw (Error) e.getCause();
+      }
+      throw new IllegalStateException("Can't suggest for " + word,
+        e.getCause());
+    }
+  }
+
+  /**
+   * @return - number of queries that waited for an identical one
+   */
+  long getCoalesced() {
+    return coalesced.get();
+  }
+
+  /**
+   * @return - number of queries refused because the queue was full
+   */
+  long getRejected() {
+    return rejected.get();
+  }
+
+  /**
+   * What makes two queries identical.
+   *
+   * @author Simon
+   */
+  private static final class Query {
+    private final Autocorrect corrector;
+    private final String word;
+    private final List<String> context;
+    private final int k;
+    private final Options opts;
+
+    Query(Autocorrect corrector, String word, List<String> context, int k,
+      Options opts) {
+      this.corrector = corrector;
+      this.word = word;
+      this.context = context;
+      this.k = k;
+      this.opts = opts;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Query)) {
+        return false;
+      }
+
+      Query q = (Query) o;
+      return corrector == q.corrector && k == q.k && word.equals(q.word)
+        && context.equals(q.context) && opts.equals(q.opts);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(System.identityHashCode(corrector), word, context,
+        k, opts);
+    }
+  }
+}
@@ -0,0 +1,271 @@
+package edu.brown.cs.sbelete.autocorrect;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Splits text typed without spaces into words, such as "thisisatest" into
+ * "this is a test". The words starting at each position are found in one
+ * walk down the trie from it. A Viterbi search over the word boundaries then
+ * keeps, for each word found, the k most likely segmentations of the text up
+ * to it, each the likelihood of the one before times that of the word after
+ * the word before it. Pairs that were counted are scored by their share of
+ * the count of the word before, and others back off to the count of the word
+ * alone, as in stupid backoff.
+ *
+ * <p>
+ * A word can't be longer than the deepest word of the trie, so the cost
+ * grows with the length of the text times the number of words found in it,
+ * and never with its square.
+ *
+ * @author Simon
+ */
+final class Segmenter {
+
+  // Weight of a word not counted after the word before it
+  private static final double BACKOFF = 0.4;
+
+  private final Trie dictionary;
+  private final Counts counts;
+  private final Learned known;
+  private final double total;
+
+  /**
+   * @param dictionary - the words built in
+   * @param counts - their counts
+   * @param known - the words and counts learned
+   */
+  Segmenter(Trie dictionary, Counts counts, Learned known) {
+    this.dictionary = dictionary;
+    this.counts = counts;
+    this.known = known;
+    this.total = Math.max(1, counts.total() + known.total());
+  }
+
+  /**
+   * Finds the most likely segmentations of text into two words or more.
+   *
+   * @param text - the text, with no spaces
+   * @param prev - the word before it (null if none)
+   * @param k - number of segmentations wanted
+   * @return - at most k segmentations, words separated by spaces, most
+   *         likely first
+   */
+  List<String> segment(String text, String prev, int k) {
+    int n = text.length();
+    // The words ending at each position, with their best segmentations
+    List<List<Word>> ending = new ArrayList<>(n + 1);
+    for (int i = 0; i <= n; i++) {
+      ending.add(new ArrayList<Word>());
+    }
+
+    Word before = new Word(prev, 0);
+    before.best = new Path[] {new Path(before, null, 0)};
+    ending.get(0).add(before);
+
+    BitSet ends = new BitSet(n + 1);
+    for (int i = 0; i < n; i++) {
+      List<Word> previous = ending.get(i);
+      if (previous.isEmpty()) {
+        continue;
+      }
+
+      ends.clear();
+      words(dictionary.getBase(), text, i, ends);
+      if (!known.words().isEmpty()) {
+        words(known.words().getBase(), text, i, ends);
+      }
+
+      for (int j = ends.nextSetBit(i + 1); j >= 0;
+        j = ends.nextSetBit(j + 1)) {
+        Word w = new Word(text.substring(i, j), i);
+        w.best = best(previous, w, k);
+        ending.get(j).add(w);
+      }
+    }
+
+    // The text as one word isn't a segmentation
+    List<Word> last = new ArrayList<>();
+    for (Word w : ending.get(n)) {
+      if (w.start > 0) {
+        last.add(w);
+      }
+    }
+
+    List<String> segmentations = new ArrayList<>();
+    for (Path p : top(last, k)) {
+      segmentations.add(p.text());
+    }
+    return segmentations;
+  }
+
+  /**
+   * Marks where the words starting at a position end.
+   *
+   * @param base - root of a trie
+   * @param text - the text
+   * @param start - where the words start
+   * @param ends - set at the index after each word
+   */
+  private static void words(Trie.TrieNode base, String text, int start,
+    BitSet ends) {
+    Trie.TrieNode node = base;
+    for (int j = start; j < text.length(); j++) {
+      node = node.get(text.charAt(j));
+      if (node == null) {
+        return;
+      }
+      if (node.validWord()) {
+        ends.set(j + 1);
+      }
+    }
+  }
+
+  /**
+   * @param previous - the words ending where w starts
+   * @param w - a word
+   * @param k - number of segmentations kept
+   * @return - the k most likely segmentations ending with w, most likely
+   *         first
+   */
+  private Path[] best(List<Word> previous, Word w, int k) {
+    Path[] best = new Path[k];
+    int size = 0;
+
+    for (Word p : previous) {
+      double likelihood = likelihood(p, w);
+      for (Path path : p.best) {
+        double score = path.score + likelihood;
+        if (size == k && score <= best[k - 1].score) {
+          // The paths of p are in order, so none after can be kept either
+          break;
+        }
+
+        int at = Math.min(size, k - 1);
+        while (at > 0 && best[at - 1].score < score) {
+          best[at] = best[at - 1];
+          at--;
+        }
+        best[at] = new Path(w, path, score);
+        size = Math.min(size + 1, k);
+      }
+    }
+
+    Path[] kept = new Path[size];
+    System.arraycopy(best, 0, kept, 0, size);
+    return kept;
+  }
+
+  /**
+   * @param words - words ending at the end of the text
+   * @param k - number of segmentations wanted
+   * @return - the k most likely segmentations ending with any of them
+   */
+  private static List<Path> top(List<Word> words, int k) {
+    List<Path> top = new ArrayList<>();
+    for (Word w : words) {
+      for (Path p : w.best) {
+        int at = top.size();
+        while (at > 0 && top.get(at - 1).score < p.score) {
+          at--;
+        }
+        if (at < k) {
+          top.add(at, p);
+        }
+        if (top.size() > k) {
+          top.remove(k);
+        }
+      }
+    }
+    return top;
+  }
+
+  /**
+   * @param prev - the word before (a null text if none)
+   * @param w - the word after it
+   * @return - the log of the likelihood of w after prev
+   */
+  private double likelihood(Word prev, Word w) {
+    double weight = 1;
+    if (prev.text != null) {
+      int pair = counts.bigram(prev.id, w.id) + known.bigram(prev.text,
+        w.text);
+      if (pair > 0) {
+        return Math.log((double) pair / Math.max(1, prev.count));
+      }
+      weight = BACKOFF;
+    }
+    return Math.log(weight * Math.max(1, w.count) / total);
+  }
+
+  /**
+   * A word found in the text, with the segmentations ending with it.
+   *
+   * @author Simon
+   */
+  private final class Word {
+    private final String text;
+    private final int start;
+    private final int id;
+    private final int count;
+    private Path[] best;
+
+    /**
+     * @param text - the word (null before the first word, if none)
+     * @param start - where it starts
+     */
+    Word(String text, int start) {
+      this.text = text;
+      this.start = start;
+      if (text == null) {
+        id = -1;
+        count = 0;
+      } else {
+        id = counts.id(text);
+        count = counts.unigram(id) + known.unigram(text);
+      }
+    }
+  }
+
+  /**
+   * A segmentation up to a word, as a link to the one before it.
+   *
+   * @author Simon
+   */
+  private static final class Path {
+    private final Word last;
+    private final Path before;
+    private final double score;
+
+    /**
+     * @param last - its last word
+     * @param before - the segmentation before it (null for the start)
+     * @param score - the log of its likelihood
+     */
+    Path(Word last, Path before, double score) {
+      this.last = last;
+      this.before = before;
+      this.score = score;
+    }
+
+    /**
+     * @return - the words, separated by spaces
+     */
+    String text() {
+      List<String> words = new ArrayList<>();
+      for (Path p = this; p.before != null; p = p.before) {
+        words.add(p.last.text);
+      }
+
+      StringBuilder sb = new StringBuilder();
+      for (int i = words.size() - 1; i >= 0; i--) {
+        sb.append(words.get(i));
+        if (i > 0) {
+          sb.append(' ');
+        }
+      }
+      return sb.toString();
+    }
+  }
+}
@@ -0,0 +1,139 @@
+package edu.brown.cs.sbelete.autocorrect;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits text into the words of the dictionary in one pass, without regular
+ * expressions or intermediate strings.
+ *
+ * <p>
+ * A token is a run of ASCII letters and apostrophes. Letters are lowercased,
+ * each run of apostrophes inside a token becomes one space and those at its
+ * ends are dropped, so "Don't" is "don t" and "'tis" is "tis". Every other
+ * character separates tokens, and tokens with no letters are skipped.
+ *
+ * <p>
+ * Characters are pushed one at a time, and each token is handed to a
+ * {@link Sink} in a buffer the tokenizer reuses, so it only allocates when a
+ * token is longer than any before it. A Tokenizer keeps state between
+ * characters and can't be shared between threads.
+ *
+ * @author Simon
+ */
+public final class Tokenizer {
+
+  /**
+   * Receives the tokens.
+   *
+   * @author Simon
+   */
+  public interface Sink {
+
+    /**
+     * Called with each token. The buffer is reused, so the token must be
+     * copied to be kept.
+     *
+     * @param chars - buffer holding the token from index 0
+     * @param length - length of the token
+     */
+    void token(char[] chars, int length);
+  }
+
+  private static final int LENGTH = 32;
+
+  private final Sink sink;
+  private char[] token = new char[LENGTH];
+  private int length = 0;
+  private boolean apostrophe = false;
+
+  /**
+   * @param sink - receives the tokens
+   */
+  public Tokenizer(Sink sink) {
+    this.sink = sink;
+  }
+
+  /**
+   * @param c - next character
+   */
+  public void accept(char c) {
+    if (c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z') {
+      if (apostrophe && length > 0) {
+        append(' ');
+      }
+      apostrophe = false;
+      append((char) (c | ' '));
+    } else if (c == '\'') {
+      apostrophe = true;
+    } else {
+      end();
+    }
+  }
+
+  /**
+   * Pushes some text, then ends the token being read.
+   *
+   * @param text - text to split
+   * @return - this tokenizer
+   */
+  public Tokenizer accept(CharSequence text) {
+    for (int i = 0; i < text.length(); i++) {
+      accept(text.charAt(i));
+    }
+    end();
+    return this;
+  }
+
+  /**
+   * @param c - character added to the token
+   */
+  private void append(char c) {
+    if (length == token.length) {
+      char[] grown = new char[length * 2];
+      System.arraycopy(token, 0, grown, 0, length);
+      token = grown;
+    }
+    token[length++] = c;
+  }
+
+  /**
+   * Hands the token being read, if any, to the sink.
+   */
+  public void end() {
+    if (length > 0) {
+      sink.token(token, length);
+    }
+
+    length = 0;
+    apostrophe = false;
+  }
+
+  /**
+   * @param text - text to split
+   * @return - its tokens, in order
+   */
+  public static List<String> tokens(CharSequence text) {
+    List<String> tokens = new ArrayList<>();
+    new Tokenizer((chars, length) -> tokens.add(new String(chars, 0, length)))
+      .accept(text);
+    return tokens;
+  }
+
+  /**
+   * @param text - text to split (null is empty)
+   * @return - its last token ("" if it has none)
+   */
+  public static String last(CharSequence text) {
+    if (text == null) {
+      return "";
+    }
+
+    StringBuilder last = new StringBuilder();
+    new Tokenizer((chars, length) -> {
+      last.setLength(0);
+      last.append(chars, 0, length);
+    }).accept(text);
+    return last.toString();
+  }
+}
@@ -0,0 +1,93 @@
+package edu.brown.cs.sbelete.autocorrect;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Keeps the k best candidates offered to it in a bounded heap, worst first,
+ * so ranking costs O(log k) per candidate instead of a sort of all of them.
+ *
+ * @author Simon
+ */
+final class TopK {
+
+  private final int k;
+  private final Comparator<Candidate> ranking;
+  private final PriorityQueue<Candidate> heap;
+  private final Set<String> kept = new HashSet<>();
+
+  /**
+   * @param k - number of candidates kept
+   * @param ranking - orders candidates, best first
+   */
+  TopK(int k, Comparator<Candidate> ranking) {
+    if (k < 1) {
+      throw new IllegalArgumentException("Can't keep " + k + " suggestions");
+    }
+
+    this.k = k;
+    this.ranking = ranking;
+    this.heap = new PriorityQueue<>(k, ranking.reversed());
+  }
+
+  /**
+   * Keeps a candidate if it is among the k best so far. A text already kept
+   * was found earlier, so the new one is ignored.
+   *
+   * @param candidate - the candidate
+   * @return - true if it was kept
+   */
+  boolean offer(Candidate candidate) {
+    if (kept.contains(candidate.getText())) {
+      return false;
+    }
+
+    if (heap.size() == k) {
+      if (ranking.compare(candidate, heap.peek()) >= 0) {
+        return false;
+      }
+      kept.remove(heap.poll().getText());
+    }
+
+    heap.add(candidate);
+    kept.add(candidate.getText());
+    return true;
+  }
+
+  /**
+   * @param text - a suggestion
+   * @return - true if it is kept
+   */
+  boolean contains(String text) {
+    return kept.contains(text);
+  }
+
+  /**
+   * @return - the k-th best candidate, or null while fewer are kept
+   */
+  Candidate worst() {
+    if (heap.size() < k) {
+      return null;
+    }
+    return heap.peek();
+  }
+
+  /**
+   * @return - the texts kept, best first
+   */
+  List<String> toList() {
+    List<Candidate> best = new ArrayList<>(heap);
+    Collections.sort(best, ranking);
+
+    List<String> texts = new ArrayList<>(best.size());
+    for (Candidate candidate : best) {
+      texts.add(candidate.getText());
+    }
+    return texts;
+  }
+}
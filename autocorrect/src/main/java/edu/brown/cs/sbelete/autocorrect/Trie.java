@@ -2,11 +2,15 @@ package edu.brown.cs.sbelete.autocorrect;
 
 import java.lang.reflect.Array;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Deque;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
-import java.util.Map.Entry;
+import java.util.Map;
+import java.util.function.ToIntFunction;
 
 /**
  * Trie.
@@ -16,7 +20,28 @@ import java.util.Map.Entry;
 public class Trie implements Collection<String> {
 
   private int size = 0;
+  private final Layout layout;
   private TrieNode base;
+  // Set once shared suffixes have been merged
+  private boolean minimized = false;
+  // Set while every node holds the largest count below it
+  private boolean annotated = false;
+  // Words added or removed and times the nodes were replaced
+  private int modCount = 0;
+
+  /**
+   * How the children of every node are stored.
+   *
+   * @author Simon
+   */
+  public enum Layout {
+    /** One HashMap of boxed characters per node. */
+    HASH,
+    /** Sorted primitive char keys next to a parallel child array. */
+    ARRAY,
+    /** Read-only nodes read in place from a compiled dictionary file. */
+    MAPPED
+  }
 
   /**
    * Returns the base of the Trie.
@@ -27,6 +52,15 @@ public class Trie implements Collection<String> {
     return base;
   }
 
+  /**
+   * Returns the node layout used by the Trie.
+   *
+   * @return - the layout chosen at construction
+   */
+  public Layout getLayout() {
+    return layout;
+  }
+
   @Override
   public int size() {
     return size;
@@ -38,21 +72,58 @@ public class Trie implements Collection<String> {
    * @param words - a collection of strings
    */
   public Trie(Collection<String> words) {
+    this(words, Layout.HASH);
+  }
+
+  /**
+   * Constructor for Trie with a chosen node layout.
+   *
+   * @param words - a collection of strings
+   * @param layout - how the children of each node are stored
+   */
+  public Trie(Collection<String> words, Layout layout) {
+    this.layout = layout;
     base = makeNode();
 
     addAll(words);
   }
 
   /**
-   * Nested class for Trie defining the nodes.
+   * Constructor for a read-only Trie around nodes that already exist, such as
+   * those of a compiled dictionary file. The nodes must already know their
+   * {@link TrieNode#getMaxCount()}.
    *
-   * @author Simon
+   * @param base - root of the nodes
+   * @param size - number of words below base
+   */
+  protected Trie(TrieNode base, int size) {
+    this.layout = Layout.MAPPED;
+    this.base = base;
+    this.size = size;
+    this.annotated = true;
+  }
+
+  /**
+   * Constructor for a Trie around nodes of a layout that can be changed.
    *
+   * @param layout - how the children of the nodes are stored
+   * @param base - root of the nodes
+   * @param size - number of words below base
    */
-  protected class TrieNode extends HashMap<Character, TrieNode> {
+  private Trie(Layout layout, TrieNode base, int size) {
+    this.layout = layout;
+    this.base = base;
+    this.size = size;
+  }
 
-    // Default serialVersionUID
-    private static final long serialVersionUID = 1L;
+  /**
+   * Nested class for Trie defining the nodes. Children are reached by their
+   * primitive character, or by position in ascending character order.
+   *
+   * @author Simon
+   *
+   */
+  protected abstract static class TrieNode {
 
     // Points to the parent TrieNode
     private TrieNode parent;
@@ -60,13 +131,8 @@ public class Trie implements Collection<String> {
     // Check to see if a word exists
     private boolean word = false;
 
-    /**
-     * Constructor for TrieNode Uses HashMap constructor with parameters of
-     * lowercase letters.
-     */
-    TrieNode() {
-      super();
-    }
+    // Largest count of a word at or below this node
+    private int maxCount = 0;
 
     /**
      * To see if the word is valid.
@@ -78,6 +144,9 @@ public class Trie implements Collection<String> {
     }
 
     /**
+     * After {@link Trie#minimize()} a node can have several parents, and this
+     * returns the one it was first added under.
+     *
      * @return the parent
      */
     public TrieNode getParent() {
@@ -90,6 +159,252 @@ public class Trie implements Collection<String> {
     public boolean isWord() {
       return word;
     }
+
+    /**
+     * Largest count of a word at or below this node, as set by
+     * {@link Trie#annotate(ToIntFunction)}. A node shared after
+     * {@link Trie#minimize()} holds the largest over every prefix reaching it.
+     *
+     * @return the bound on the counts below
+     */
+    public int getMaxCount() {
+      return maxCount;
+    }
+
+    /**
+     * Finds the child reached through a character.
+     *
+     * @param c - edge character
+     * @return - the child node (null otherwise)
+     */
+    public abstract TrieNode get(char c);
+
+    /**
+     * @return the number of children
+     */
+    public abstract int childCount();
+
+    /**
+     * Edge character of the i-th child, in ascending order.
+     *
+     * @param i - child position
+     * @return - the character leading to that child
+     */
+    public abstract char keyAt(int i);
+
+    /**
+     * The i-th child, in ascending character order.
+     *
+     * @param i - child position
+     * @return - the child node
+     */
+    public abstract TrieNode childAt(int i);
+
+    /**
+     * Adds a child under a character that is not yet present.
+     *
+     * @param c - edge character
+     * @param child - node to add
+     */
+    protected abstract void put(char c, TrieNode child);
+
+    /**
+     * Removes the child under a character that is present.
+     *
+     * @param c - edge character
+     */
+    protected abstract void remove(char c);
+
+    /**
+     * Replaces the i-th child, keeping its character.
+     *
+     * @param i - child position
+     * @param child - node to put there
+     */
+    protected abstract void setChildAt(int i, TrieNode child);
+  }
+
+  /**
+   * Original node layout, a HashMap of boxed characters. Adding or removing a
+   * child only changes the map: the sorted characters that children are
+   * visited in by position are found from it when next asked for.
+   *
+   * @author Simon
+   */
+  private static final class HashTrieNode extends TrieNode {
+
+    private final Map<Character, TrieNode> children;
+    // Sorted characters of the children (null until asked for after a
+    // change), published whole to the threads reading the node
+    private volatile char[] keys;
+
+    HashTrieNode() {
+      children = new HashMap<>();
+    }
+
+    /**
+     * @param expected - number of children, which fit without resizing
+     */
+    HashTrieNode(int expected) {
+      children = new HashMap<>(expected * 4 / 3 + 1);
+    }
+
+    @Override
+    public TrieNode get(char c) {
+      return children.get(c);
+    }
+
+    @Override
+    public int childCount() {
+      return children.size();
+    }
+
+    @Override
+    public char keyAt(int i) {
+      return keys()[i];
+    }
+
+    @Override
+    public TrieNode childAt(int i) {
+      return children.get(keys()[i]);
+    }
+
+    @Override
+    protected void put(char c, TrieNode child) {
+      if (children.put(c, child) == null) {
+        keys = null;
+      }
+    }
+
+    @Override
+    protected void remove(char c) {
+      children.remove(c);
+      keys = null;
+    }
+
+    @Override
+    protected void setChildAt(int i, TrieNode child) {
+      children.put(keys()[i], child);
+    }
+
+    /**
+     * @return - the characters of the children, sorted
+     */
+    private char[] keys() {
+      char[] sorted = keys;
+      if (sorted == null) {
+        sorted = new char[children.size()];
+        int i = 0;
+        for (char c : children.keySet()) {
+          sorted[i++] = c;
+        }
+        Arrays.sort(sorted);
+        keys = sorted;
+      }
+      return sorted;
+    }
+  }
+
+  /**
+   * Compact node layout: sorted primitive char edges next to a parallel child
+   * array, looked up by binary search. No boxing and no hash table per node.
+   *
+   * @author Simon
+   */
+  private static final class ArrayTrieNode extends TrieNode {
+
+    private static final char[] NO_KEYS = new char[0];
+    private static final TrieNode[] NO_CHILDREN = new TrieNode[0];
+
+    private char[] keys = NO_KEYS;
+    private TrieNode[] children = NO_CHILDREN;
+
+    @Override
+    public TrieNode get(char c) {
+      int i = Arrays.binarySearch(keys, c);
+      if (i < 0) {
+        return null;
+      }
+      return children[i];
+    }
+
+    @Override
+    public int childCount() {
+      return keys.length;
+    }
+
+    @Override
+    public char keyAt(int i) {
+      return keys[i];
+    }
+
+    @Override
+    public TrieNode childAt(int i) {
+      return children[i];
+    }
+
+    @Override
+    protected void put(char c, TrieNode child) {
+      int at = -Arrays.binarySearch(keys, c) - 1;
+
+      TrieNode[] grown = new TrieNode[children.length + 1];
+      System.arraycopy(children, 0, grown, 0, at);
+      grown[at] = child;
+      System.arraycopy(children, at, grown, at + 1, children.length - at);
+
+      keys = insert(keys, c);
+      children = grown;
+    }
+
+    @Override
+    protected void remove(char c) {
+      int at = Arrays.binarySearch(keys, c);
+
+      TrieNode[] shrunk = new TrieNode[children.length - 1];
+      System.arraycopy(children, 0, shrunk, 0, at);
+      System.arraycopy(children, at + 1, shrunk, at, shrunk.length - at);
+
+      keys = delete(keys, at);
+      children = shrunk;
+    }
+
+    @Override
+    protected void setChildAt(int i, TrieNode child) {
+      children[i] = child;
+    }
+  }
+
+  /**
+   * Copies a sorted char array with one more character in place.
+   *
+   * @param keys - sorted characters
+   * @param c - character that is not in keys
+   * @return - a new sorted array containing c
+   */
+  private static char[] insert(char[] keys, char c) {
+    int at = -Arrays.binarySearch(keys, c) - 1;
+
+    char[] grown = new char[keys.length + 1];
+    System.arraycopy(keys, 0, grown, 0, at);
+    grown[at] = c;
+    System.arraycopy(keys, at, grown, at + 1, keys.length - at);
+
+    return grown;
+  }
+
+  /**
+   * Copies a char array with one character left out.
+   *
+   * @param keys - characters
+   * @param at - position of the one to leave out
+   * @return - a new array without it
+   */
+  private static char[] delete(char[] keys, int at) {
+    char[] shrunk = new char[keys.length - 1];
+    System.arraycopy(keys, 0, shrunk, 0, at);
+    System.arraycopy(keys, at + 1, shrunk, at, shrunk.length - at);
+
+    return shrunk;
   }
 
   /**
@@ -100,9 +415,13 @@ public class Trie implements Collection<String> {
    */
   protected class TrieIterator implements Iterator<String> {
 
+    private static final int DEPTH = 16;
+
     private String next;
     private StringBuilder sb = new StringBuilder();
-    private Deque<Iterator<Entry<Character, TrieNode>>> q = new ArrayDeque<>();
+    private Deque<TrieNode> q = new ArrayDeque<>();
+    // Next child to visit at each depth of q
+    private int[] positions = new int[DEPTH];
 
     /**
      * Iterator for the Trie.
@@ -112,7 +431,7 @@ public class Trie implements Collection<String> {
      */
     public TrieIterator(TrieNode node, String s) {
       sb.append(s);
-      q.push(node.entrySet().iterator());
+      q.push(node);
 
       if (node.isWord()) {
         next = s;
@@ -126,33 +445,35 @@ public class Trie implements Collection<String> {
      */
     private void findNext() {
       next = null;
-      Iterator<Entry<Character, TrieNode>> iterator = q.peek();
-
-      while (iterator != null) {
-        while (iterator.hasNext()) {
-          Entry<Character, TrieNode> item = iterator.next();
 
-          char key = item.getKey();
+      while (!q.isEmpty()) {
+        TrieNode node = q.peek();
+        int depth = q.size() - 1;
+        int i = positions[depth];
 
-          sb.append(key);
-          TrieNode node = item.getValue();
-          iterator = node.entrySet().iterator();
+        if (i < node.childCount()) {
+          positions[depth] = i + 1;
+          sb.append(node.keyAt(i));
 
-          q.push(iterator);
+          TrieNode child = node.childAt(i);
+          if (depth + 1 == positions.length) {
+            positions = Arrays.copyOf(positions, positions.length * 2);
+          }
+          positions[depth + 1] = 0;
+          q.push(child);
 
-          if (node.isWord()) {
+          if (child.isWord()) {
             next = sb.toString();
             return;
           }
-        }
+        } else {
+          q.pop();
 
-        q.pop();
-
-        if (sb.length() > 0) {
-          sb.deleteCharAt(sb.length() - 1);
+          // The starting node keeps its prefix
+          if (!q.isEmpty()) {
+            sb.deleteCharAt(sb.length() - 1);
+          }
         }
-
-        iterator = q.peek();
       }
     }
 
@@ -180,7 +501,26 @@ public class Trie implements Collection<String> {
    * @return - constructed new Node
    */
   protected TrieNode makeNode() {
-    return new TrieNode();
+    if (layout == Layout.MAPPED) {
+      throw new UnsupportedOperationException("Mapped Tries are read-only");
+    }
+    if (layout == Layout.ARRAY) {
+      return new ArrayTrieNode();
+    }
+    return new HashTrieNode();
+  }
+
+  /**
+   * Creates a TrieNode for a known number of children.
+   *
+   * @param children - number of children it will hold
+   * @return - constructed new Node, with a table sized to them if hashed
+   */
+  private TrieNode makeNode(int children) {
+    if (layout == Layout.HASH) {
+      return new HashTrieNode(children);
+    }
+    return makeNode();
   }
 
   @Override
@@ -204,8 +544,8 @@ public class Trie implements Collection<String> {
   protected TrieNode getNode(String word) {
     TrieNode node = base;
 
-    for (char c : word.toCharArray()) {
-      node = node.get(c);
+    for (int i = 0; i < word.length(); i++) {
+      node = node.get(word.charAt(i));
 
       if (node == null) {
         return null;
@@ -225,13 +565,187 @@ public class Trie implements Collection<String> {
     return getNode(s) != null;
   }
 
+  /**
+   * Merges every group of equivalent subtrees into one node, turning the Trie
+   * into a minimal acyclic automaton (DAWG). Words sharing a suffix such as
+   * "-ing" then share its nodes. Lookups and iteration behave the same, but
+   * no more words can be added.
+   *
+   * @return - the number of nodes left
+   */
+  public int minimize() {
+    if (layout == Layout.MAPPED) {
+      throw new UnsupportedOperationException("Mapped Tries are read-only");
+    }
+
+    Map<String, TrieNode> registry = new HashMap<>();
+    Map<TrieNode, Integer> ids = new IdentityHashMap<>();
+
+    base = minimize(base, registry, ids);
+    minimized = true;
+    // Merged nodes only kept the counts of their own subtree
+    annotated = false;
+    modCount++;
+
+    return ids.size();
+  }
+
+  /**
+   * Minimizes the children of node, then returns the registered node
+   * equivalent to it.
+   *
+   * @param node - node whose subtree is minimized
+   * @param registry - canonical node for each signature
+   * @param ids - numbers of the canonical nodes
+   * @return - the canonical node for node
+   */
+  private static TrieNode minimize(TrieNode node,
+    Map<String, TrieNode> registry, Map<TrieNode, Integer> ids) {
+    if (ids.containsKey(node)) {
+      return node;
+    }
+
+    // A node is defined by its flag and its edges to canonical children
+    StringBuilder signature = new StringBuilder();
+    signature.append(node.isWord() ? '1' : '0');
+
+    for (int i = 0; i < node.childCount(); i++) {
+      TrieNode child = minimize(node.childAt(i), registry, ids);
+      node.setChildAt(i, child);
+
+      int id = ids.get(child);
+      signature.append(node.keyAt(i));
+      signature.append((char) (id >>> Character.SIZE)).append((char) id);
+    }
+
+    String key = signature.toString();
+    TrieNode same = registry.get(key);
+
+    if (same == null) {
+      registry.put(key, node);
+      ids.put(node, ids.size());
+      return node;
+    }
+
+    return same;
+  }
+
+  /**
+   * Stores in every node the largest count of a word at or below it, so that
+   * searches can skip subtrees whose words can't rank high enough.
+   *
+   * @param counts - count of each word
+   */
+  protected void annotate(ToIntFunction<String> counts) {
+    if (layout == Layout.MAPPED) {
+      throw new UnsupportedOperationException("Mapped Tries are read-only");
+    }
+
+    Map<TrieNode, Boolean> seen = null;
+    if (minimized) {
+      seen = new IdentityHashMap<>();
+    }
+
+    annotate(base, new StringBuilder(), counts, seen);
+    annotated = true;
+  }
+
+  /**
+   * Annotates the subtree of a node reached through the characters in sb.
+   *
+   * @param node - node to annotate
+   * @param sb - characters leading to node
+   * @param counts - count of each word
+   * @param seen - nodes already annotated through another prefix (null if
+   *        nodes are not shared)
+   * @return - the largest count below node through this prefix
+   */
+  private static int annotate(TrieNode node, StringBuilder sb,
+    ToIntFunction<String> counts, Map<TrieNode, Boolean> seen) {
+    int max = 0;
+    if (node.isWord()) {
+      max = counts.applyAsInt(sb.toString());
+    }
+
+    for (int i = 0; i < node.childCount(); i++) {
+      sb.append(node.keyAt(i));
+      max = Math.max(max, annotate(node.childAt(i), sb, counts, seen));
+      sb.deleteCharAt(sb.length() - 1);
+    }
+
+    // A shared node must bound the words of every prefix reaching it
+    if (seen == null || seen.put(node, true) == null || max > node.maxCount) {
+      node.maxCount = max;
+    }
+    return max;
+  }
+
+  /**
+   * Checks to see if every node holds the largest count below it.
+   *
+   * @return - true from {@link #annotate(ToIntFunction)} until the next change
+   */
+  public boolean isAnnotated() {
+    return annotated;
+  }
+
+  /**
+   * Counts the changes made, so that state kept about the words or nodes
+   * can tell when it is stale.
+   *
+   * @return - number of words added or removed and of times the nodes were
+   *         replaced
+   */
+  public int getModCount() {
+    return modCount;
+  }
+
+  /**
+   * Checks to see if shared suffixes have been merged.
+   *
+   * @return - true once {@link #minimize()} has run
+   */
+  public boolean isMinimized() {
+    return minimized;
+  }
+
+  /**
+   * Counts the distinct nodes, so that shared nodes count once.
+   *
+   * @return - the number of nodes reachable from the base
+   */
+  public int nodeCount() {
+    Map<TrieNode, Boolean> seen = new IdentityHashMap<>();
+    Deque<TrieNode> stack = new ArrayDeque<>();
+    stack.push(base);
+    seen.put(base, true);
+
+    while (!stack.isEmpty()) {
+      TrieNode node = stack.pop();
+
+      for (int i = 0; i < node.childCount(); i++) {
+        TrieNode child = node.childAt(i);
+
+        if (seen.put(child, true) == null) {
+          stack.push(child);
+        }
+      }
+    }
+
+    return seen.size();
+  }
+
   @Override
   public boolean add(String word) {
+    if (minimized || layout == Layout.MAPPED) {
+      throw new UnsupportedOperationException("Can't add to a read-only Trie");
+    }
+
     TrieNode n = base;
 
     // Adds word to Trie
-    for (char l : word.toCharArray()) {
-
+    for (int i = 0; i < word.length(); i++) {
+      char l = word.charAt(i);
       TrieNode next = n.get(l);
 
       if (next == null) {
@@ -249,10 +763,79 @@ public class Trie implements Collection<String> {
     } else {
       n.word = true;
       size++;
+      annotated = false;
+      modCount++;
       return true;
     }
   }
 
+  /**
+   * Copies this Trie with more words, sharing every node off the paths of the
+   * words added, so that the copy costs the length of those words rather than
+   * the size of the Trie. Neither Trie may be changed after, since the nodes
+   * they share only know their parents in this one.
+   *
+   * @param words - the words added
+   * @return - a Trie of the words of both
+   */
+  protected Trie with(Collection<String> words) {
+    if (minimized || layout == Layout.MAPPED) {
+      throw new UnsupportedOperationException("Can't copy a read-only Trie");
+    }
+
+    // Nodes of the copy, which can be changed until it is returned
+    Map<TrieNode, Boolean> fresh = new IdentityHashMap<>();
+    TrieNode root = shallowCopy(base);
+    fresh.put(root, true);
+    int count = size;
+
+    for (String word : words) {
+      TrieNode n = root;
+      for (int i = 0; i < word.length(); i++) {
+        char l = word.charAt(i);
+        TrieNode next = n.get(l);
+
+        if (next == null) {
+          next = makeNode();
+          n.put(l, next);
+        } else if (!fresh.containsKey(next)) {
+          next = shallowCopy(next);
+          int at = 0;
+          while (n.keyAt(at) != l) {
+            at++;
+          }
+          n.setChildAt(at, next);
+        }
+        next.parent = n;
+        fresh.put(next, true);
+
+        n = next;
+      }
+
+      if (!n.word) {
+        n.word = true;
+        count++;
+      }
+    }
+
+    return new Trie(layout, root, count);
+  }
+
+  /**
+   * @param node - a node
+   * @return - a new node with the same children
+   */
+  private TrieNode shallowCopy(TrieNode node) {
+    TrieNode fresh = makeNode(node.childCount());
+    fresh.word = node.word;
+
+    for (int i = 0; i < node.childCount(); i++) {
+      fresh.put(node.keyAt(i), node.childAt(i));
+    }
+
+    return fresh;
+  }
+
   @Override
   public boolean addAll(Collection<? extends String> w) {
     boolean added = false;
@@ -289,9 +872,12 @@ public class Trie implements Collection<String> {
   @SuppressWarnings("unchecked")
   @Override
   public <T> T[] toArray(T[] a) {
-    T[] retArr = null;
+    T[] retArr = a;
     if (size() > a.length) {
       retArr = (T[]) Array.newInstance(a.getClass().getComponentType(), size());
+    } else if (size() < a.length) {
+      // Marks the end of the words, as Collection asks
+      retArr[size()] = null;
     }
     Iterator<String> iter = iterator();
     int i = 0;
@@ -303,31 +889,129 @@ public class Trie implements Collection<String> {
 
   @Override
   public boolean containsAll(Collection<?> c) {
-    // Unneeded method for my implementation
-    return false;
+    for (Object o : c) {
+      if (!contains(o)) {
+        return false;
+      }
+    }
+    return true;
   }
 
   @Override
   public boolean retainAll(Collection<?> c) {
-    // Static Trie that doesn't remove elements
-    return false;
+    // Words can't be removed while the iterator walks them
+    Collection<String> gone = new ArrayList<>();
+    for (String word : this) {
+      if (!c.contains(word)) {
+        gone.add(word);
+      }
+    }
+
+    return removeAll(gone);
   }
 
   @Override
   public boolean removeAll(Collection<?> c) {
-    // Static Trie that doesn't remove elements
-    return false;
+    boolean removed = false;
+
+    for (Object o : c) {
+      if (remove(o)) {
+        removed = true;
+      }
+    }
+
+    return removed;
   }
 
+  /**
+   * Removes a word, then the nodes left leading to no word, up through their
+   * parents. Nodes still bound the counts of the words below them, so the
+   * Trie stays annotated.
+   *
+   * @param o - word to remove
+   * @return - true if it was in the Trie
+   */
   @Override
   public boolean remove(Object o) {
-    // Static Trie that doesn't remove elements
-    return false;
+    if (minimized || layout == Layout.MAPPED) {
+      throw new UnsupportedOperationException(
+        "Can't remove from a read-only Trie");
+    }
+    if (!(o instanceof String)) {
+      return false;
+    }
+
+    String word = (String) o;
+    TrieNode n = getNode(word);
+    if (n == null || !n.validWord()) {
+      return false;
+    }
+
+    n.word = false;
+    size--;
+    modCount++;
+
+    // Prunes the branch back to the last node still in use
+    for (int i = word.length() - 1; i >= 0 && !n.validWord()
+      && n.childCount() == 0; i--) {
+      TrieNode parent = n.parent;
+      parent.remove(word.charAt(i));
+      n.parent = null;
+      n = parent;
+    }
+
+    return true;
   }
 
   @Override
   public void clear() {
-    // Static Trie that doesn't remove elements
+    if (minimized || layout == Layout.MAPPED) {
+      throw new UnsupportedOperationException("Can't clear a read-only Trie");
+    }
+
+    base = makeNode();
+    size = 0;
+    modCount++;
+  }
+
+  /**
+   * Copies every node into a new one holding only what it needs, so that
+   * memory held after many removals is released. Hash nodes get tables sized
+   * to their children, and nodes are laid out anew in the order they are
+   * walked. The counts below each node are lost, so the Trie must be
+   * annotated again.
+   *
+   * @return - the number of nodes left
+   */
+  public int compact() {
+    if (minimized || layout == Layout.MAPPED) {
+      throw new UnsupportedOperationException("Can't compact a read-only Trie");
+    }
+
+    base = copy(base);
+    annotated = false;
+    modCount++;
+
+    return nodeCount();
+  }
+
+  /**
+   * Copies a subtree into new nodes.
+   *
+   * @param node - root of the subtree
+   * @return - a new node with copies of its children
+   */
+  private TrieNode copy(TrieNode node) {
+    TrieNode fresh = makeNode(node.childCount());
+    fresh.word = node.word;
+
+    for (int i = 0; i < node.childCount(); i++) {
+      TrieNode child = copy(node.childAt(i));
+      child.parent = fresh;
+      fresh.put(node.keyAt(i), child);
+    }
+
+    return fresh;
   }
 
 }
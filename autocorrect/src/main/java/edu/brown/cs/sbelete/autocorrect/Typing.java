@@ -0,0 +1,523 @@
+package edu.brown.cs.sbelete.autocorrect;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * The word one user is typing, kept between the queries sent as each key is
+ * pressed. For every prefix of the word it holds the active nodes: the
+ * prefixes in the trie within LED of it, each with its exact distance, which
+ * is the last column of the DP rows a walk from the root would fill in for
+ * them. A character typed derives the active nodes of the longer word from
+ * those of the shorter, and a backspace drops back to those already held, so
+ * a keystroke only costs as much as the nodes near the word.
+ *
+ * <p>
+ * The active nodes of the whole word hold the words within LED of it, and
+ * the one at distance 0 is the node its completions are below. The words
+ * below any of them are those with a prefix within LED of it. A Typing
+ * starts over when it is used with another trie or LED, or once the trie has
+ * changed. It isn't thread safe, so the queries of one user lock it.
+ *
+ * <p>
+ * Each prefix of the trie reached is numbered once, by the prefix one
+ * shorter and its last character, and the active nodes of a prefix of the
+ * word are only these numbers and their distances. At most
+ * {@link #MAX_ACTIVE} are kept over all the prefixes of the word: past that
+ * the shortest prefixes are dropped, and typed again from the start if
+ * backspaced to, and a word with more on its own isn't kept, so its queries
+ * search from the root.
+ *
+ * @author Simon
+ */
+public final class Typing {
+
+  /** Longest word whose prefixes are kept, and largest LED. */
+  public static final int MAX_LENGTH = 64;
+
+  /** Most active nodes kept over all the prefixes of the word. */
+  public static final int MAX_ACTIVE = 1 << 15;
+
+  private static final int CAPACITY = 64;
+
+  private Trie trie;
+  private int modCount;
+  private int led = -1;
+  private final StringBuilder word = new StringBuilder();
+  // Length of the prefix of the word with too many active nodes (-1 if none)
+  private int overflow = -1;
+
+  // Prefixes of the trie reached, by number: the node each ends at, the
+  // prefix one shorter and the last character, and the first and next of
+  // those one longer. The empty prefix is 0
+  private Trie.TrieNode[] nodes;
+  private int[] parents;
+  private char[] keys;
+  private int[] firstChild;
+  private int[] nextSibling;
+  private int paths;
+  // Number of prefixes past which those no longer active are dropped
+  private int compactAt;
+
+  // Active nodes of each prefix of the word, from the empty one (null once
+  // dropped), and their number over all of them
+  private final List<Level> levels = new ArrayList<>();
+  private int kept;
+
+  // The active nodes being found: the mark of each prefix is the level it
+  // was last reached in, with its least distance there
+  private int[] marks;
+  private int[] best;
+  private int mark;
+  private Ints[] byDistance;
+  private final Ints reached = new Ints();
+
+  /**
+   * Moves to the word typed now, keeping the active nodes of the prefix it
+   * shares with the word before.
+   *
+   * @param dictionary - the trie the word is looked up in
+   * @param typed - the word typed
+   * @param distance - largest LED of the words wanted
+   * @return - false if the word is too long to keep, or has too many active
+   *         nodes, and it isn't kept
+   */
+  boolean update(Trie dictionary, String typed, int distance) {
+    if (typed.length() > MAX_LENGTH || distance > MAX_LENGTH) {
+      reset(null, -1);
+      return false;
+    }
+
+    if (dictionary != trie || distance != led
+      || dictionary.getModCount() != modCount) {
+      reset(dictionary, distance);
+    }
+
+    int shared = 0;
+    while (shared < word.length() && shared < typed.length()
+      && word.charAt(shared) == typed.charAt(shared)) {
+      shared++;
+    }
+
+    if (overflow >= 0 && shared >= overflow) {
+      return false;
+    }
+    if (overflow >= 0 || levels.get(shared) == null) {
+      reset(dictionary, distance);
+      shared = 0;
+    }
+
+    word.setLength(shared);
+    for (int i = levels.size() - 1; i > shared; i--) {
+      kept -= levels.remove(i).paths.length;
+    }
+
+    for (int i = shared; i < typed.length(); i++) {
+      word.append(typed.charAt(i));
+      Level next = extend(levels.get(i), typed.charAt(i));
+      if (next == null) {
+        // The word is kept only to tell those that start with it
+        clear();
+        overflow = word.length();
+        return false;
+      }
+
+      levels.add(next);
+      kept += next.paths.length;
+      for (int j = 0; kept > MAX_ACTIVE; j++) {
+        Level dropped = levels.set(j, null);
+        if (dropped != null) {
+          kept -= dropped.paths.length;
+        }
+      }
+      if (paths > compactAt) {
+        compact();
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return - the node reached by the word (null if no word starts with it)
+   */
+  Trie.TrieNode node() {
+    Level active = levels.get(word.length());
+    for (int i = 0; i < active.paths.length; i++) {
+      if (active.distances[i] == 0) {
+        return nodes[active.paths[i]];
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Finds the words within LED of the word, in no particular order.
+   *
+   * @param limit - largest LED wanted, at most the one updated with
+   * @param found - receives each word and its LED
+   */
+  void within(int limit, ObjIntConsumer<String> found) {
+    Level active = levels.get(word.length());
+    for (int i = 0; i < active.paths.length; i++) {
+      int p = active.paths[i];
+      if (active.distances[i] <= limit && nodes[p].validWord()) {
+        found.accept(text(p), active.distances[i]);
+      }
+    }
+  }
+
+  /**
+   * Finds the topmost active nodes, those with no active node above them.
+   * The words below them are those with a prefix within LED of the word.
+   *
+   * @param found - receives each node and the prefix it ends, in order
+   */
+  void roots(BiConsumer<Trie.TrieNode, String> found) {
+    Level active = levels.get(word.length());
+    mark = next();
+    for (int p : active.paths) {
+      marks[p] = mark;
+    }
+
+    Map<String, Trie.TrieNode> roots = new TreeMap<>();
+    for (int p : active.paths) {
+      int above = parents[p];
+      while (above >= 0 && marks[above] != mark) {
+        above = parents[above];
+      }
+      if (above < 0) {
+        roots.put(text(p), nodes[p]);
+      }
+    }
+    roots.forEach((text, node) -> found.accept(node, text));
+  }
+
+  /**
+   * Starts over, with nothing typed.
+   *
+   * @param dictionary - the trie (null to keep nothing)
+   * @param distance - largest LED of the words wanted
+   */
+  private void reset(Trie dictionary, int distance) {
+    trie = dictionary;
+    led = distance;
+    word.setLength(0);
+    overflow = -1;
+    clear();
+    if (dictionary == null) {
+      return;
+    }
+
+    modCount = dictionary.getModCount();
+    grow(CAPACITY);
+    byDistance = new Ints[led + 1];
+    for (int d = 0; d <= led; d++) {
+      byDistance[d] = new Ints();
+    }
+    add(dictionary.getBase(), -1, '\0');
+    compactAt = 2 * MAX_ACTIVE;
+
+    // The empty word, matched by the prefixes at most led long
+    mark = next();
+    relax(0, 0);
+    Level empty = close();
+    if (empty == null) {
+      clear();
+      overflow = 0;
+      return;
+    }
+    levels.add(empty);
+    kept = empty.paths.length;
+  }
+
+  /**
+   * Drops the active nodes and the prefixes of the trie reached.
+   */
+  private void clear() {
+    levels.clear();
+    kept = 0;
+    nodes = null;
+    parents = null;
+    keys = null;
+    firstChild = null;
+    nextSibling = null;
+    marks = null;
+    best = null;
+    byDistance = null;
+    paths = 0;
+  }
+
+  /**
+   * Finds the active nodes of a word one character longer. A node's distance
+   * to it is the least of its distance to the shorter word with c deleted,
+   * its parent's distance to the shorter word with c matched or substituted,
+   * and its parent's distance to the longer word with the node's character
+   * inserted. The first two come from the nodes active before; the last
+   * spreads down from the new ones.
+   *
+   * @param before - the active nodes of the shorter word
+   * @param c - the character typed
+   * @return - the active nodes of the longer word (null if too many)
+   */
+  private Level extend(Level before, char c) {
+    mark = next();
+    for (int j = 0; j < before.paths.length; j++) {
+      int p = before.paths[j];
+      int d = before.distances[j];
+      if (d < led) {
+        relax(p, d + 1);
+      }
+
+      Trie.TrieNode node = nodes[p];
+      for (int i = 0; i < node.childCount(); i++) {
+        int distance = d;
+        if (node.keyAt(i) != c) {
+          distance++;
+        }
+        if (distance <= led) {
+          relax(child(p, i), distance);
+        }
+      }
+      if (reached.size > MAX_ACTIVE) {
+        break;
+      }
+    }
+    return close();
+  }
+
+  /**
+   * Spreads insertions down from the active nodes, nearest first, so each
+   * node is reached at its least distance before it spreads further.
+   *
+   * @return - the active nodes reached (null if too many)
+   */
+  private Level close() {
+    for (int d = 0; d < led && reached.size <= MAX_ACTIVE; d++) {
+      Ints level = byDistance[d];
+      for (int j = 0; j < level.size; j++) {
+        int p = level.values[j];
+        // Reached nearer since, and already spread
+        if (best[p] != d) {
+          continue;
+        }
+
+        Trie.TrieNode node = nodes[p];
+        for (int i = 0; i < node.childCount(); i++) {
+          relax(child(p, i), d + 1);
+        }
+      }
+    }
+
+    Level active = null;
+    if (reached.size <= MAX_ACTIVE) {
+      active = new Level(reached.size);
+      for (int j = 0; j < reached.size; j++) {
+        int p = reached.values[j];
+        active.paths[j] = p;
+        active.distances[j] = (byte) best[p];
+      }
+    }
+
+    reached.size = 0;
+    for (Ints level : byDistance) {
+      level.size = 0;
+    }
+    return active;
+  }
+
+  /**
+   * Keeps a prefix unless it is already active at no greater distance.
+   *
+   * @param p - the prefix
+   * @param distance - its distance to the word
+   */
+  private void relax(int p, int distance) {
+    if (marks[p] != mark) {
+      marks[p] = mark;
+      reached.add(p);
+    } else if (distance >= best[p]) {
+      return;
+    }
+    best[p] = distance;
+    byDistance[distance].add(p);
+  }
+
+  /**
+   * @param p - a prefix
+   * @param i - index of a child of its node
+   * @return - the prefix one longer, ending at that child
+   */
+  private int child(int p, int i) {
+    char key = nodes[p].keyAt(i);
+    for (int q = firstChild[p]; q >= 0; q = nextSibling[q]) {
+      if (keys[q] == key) {
+        return q;
+      }
+    }
+
+    int q = add(nodes[p].childAt(i), p, key);
+    nextSibling[q] = firstChild[p];
+    firstChild[p] = q;
+    return q;
+  }
+
+  /**
+   * @param node - the node a prefix ends at
+   * @param parent - the prefix one shorter (-1 if none)
+   * @param key - the last character
+   * @return - the number of the prefix
+   */
+  private int add(Trie.TrieNode node, int parent, char key) {
+    if (paths == nodes.length) {
+      grow(2 * paths);
+    }
+
+    int p = paths++;
+    nodes[p] = node;
+    parents[p] = parent;
+    keys[p] = key;
+    firstChild[p] = -1;
+    nextSibling[p] = -1;
+    return p;
+  }
+
+  /**
+   * @param capacity - number of prefixes the arrays must hold
+   */
+  private void grow(int capacity) {
+    if (nodes == null) {
+      nodes = new Trie.TrieNode[capacity];
+      parents = new int[capacity];
+      keys = new char[capacity];
+      firstChild = new int[capacity];
+      nextSibling = new int[capacity];
+      marks = new int[capacity];
+      best = new int[capacity];
+      return;
+    }
+
+    nodes = Arrays.copyOf(nodes, capacity);
+    parents = Arrays.copyOf(parents, capacity);
+    keys = Arrays.copyOf(keys, capacity);
+    firstChild = Arrays.copyOf(firstChild, capacity);
+    nextSibling = Arrays.copyOf(nextSibling, capacity);
+    marks = Arrays.copyOf(marks, capacity);
+    best = Arrays.copyOf(best, capacity);
+  }
+
+  /**
+   * Renumbers the prefixes active in the levels kept, and those above them,
+   * dropping the rest.
+   */
+  private void compact() {
+    boolean[] used = new boolean[paths];
+    used[0] = true;
+    for (Level level : levels) {
+      if (level == null) {
+        continue;
+      }
+      for (int p : level.paths) {
+        for (int q = p; !used[q]; q = parents[q]) {
+          used[q] = true;
+        }
+      }
+    }
+
+    // A prefix is numbered after the one above it, so is renumbered after
+    int[] renumbered = new int[paths];
+    Trie.TrieNode[] oldNodes = nodes;
+    int[] oldParents = parents;
+    char[] oldKeys = keys;
+    int count = paths;
+    nodes = null;
+    paths = 0;
+    grow(Math.max(CAPACITY, 2 * count));
+    for (int p = 0; p < count; p++) {
+      if (!used[p]) {
+        continue;
+      }
+
+      int parent = -1;
+      if (oldParents[p] >= 0) {
+        parent = renumbered[oldParents[p]];
+      }
+      int q = add(oldNodes[p], parent, oldKeys[p]);
+      renumbered[p] = q;
+      if (parent >= 0) {
+        nextSibling[q] = firstChild[parent];
+        firstChild[parent] = q;
+      }
+    }
+
+    for (Level level : levels) {
+      if (level == null) {
+        continue;
+      }
+      for (int j = 0; j < level.paths.length; j++) {
+        level.paths[j] = renumbered[level.paths[j]];
+      }
+    }
+    mark = 0;
+    compactAt = Math.max(2 * MAX_ACTIVE, 2 * paths);
+  }
+
+  /**
+   * @return - a mark not yet used
+   */
+  private int next() {
+    if (mark == Integer.MAX_VALUE) {
+      Arrays.fill(marks, 0);
+      mark = 0;
+    }
+    return mark + 1;
+  }
+
+  /**
+   * @param p - a prefix
+   * @return - its text
+   */
+  private String text(int p) {
+    StringBuilder text = new StringBuilder();
+    for (int q = p; q > 0; q = parents[q]) {
+      text.append(keys[q]);
+    }
+    return text.reverse().toString();
+  }
+
+  /**
+   * The active nodes of a prefix of the word.
+   *
+   * @author Simon
+   */
+  private static final class Level {
+    private final int[] paths;
+    private final byte[] distances;
+
+    Level(int size) {
+      paths = new int[size];
+      distances = new byte[size];
+    }
+  }
+
+  /**
+   * A growing list of ints.
+   *
+   * @author Simon
+   */
+  private static final class Ints {
+    private int[] values = new int[CAPACITY];
+    private int size;
+
+    void add(int value) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, 2 * size);
+      }
+      values[size++] = value;
+    }
+  }
+}
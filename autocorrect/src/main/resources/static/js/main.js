@@ -8,6 +8,9 @@ var suggestions = [ document.getElementById('suggest1'),
 
 var suggs = formatSuggestions();
 
+// Lets the server pick up from the word this page sent last
+var session = Math.random().toString(36).slice(2);
+
 $(".selector").autocomplete({
 	autoFocus : true
 });
@@ -27,6 +30,8 @@ function getSuggestions() {
 	var postParameters = {
 		word : extractLast(input.value),
 		prev : extractPrev(input.value),
+		context : extractContext(input.value),
+		session : session,
 		on : true
 	};
 
@@ -71,6 +76,9 @@ $("#autocorrect").autocomplete(
 				var terms = split(this.value);
 				// remove the current input
 				terms.pop();
+				// learn the selected item after the word before it
+				learn(terms.length > 0 ? terms[terms.length - 1] : "",
+						ui.item.value);
 				// add the selected item
 				terms.push(ui.item.value);
 				// add placeholder to get the
@@ -81,6 +89,14 @@ $("#autocorrect").autocomplete(
 			}
 		});
 
+// Teaches the server an accepted suggestion and the word before it
+function learn(prev, text) {
+	$.post("/learn", {
+		prev : prev,
+		words : text
+	});
+}
+
 function setAutocorrect() {
 
 	if (suggs != formatSuggestions()) {
@@ -112,6 +128,12 @@ function extractLast(term) {
 	return split(term).pop();
 }
 
+function extractContext(term) {
+	var temp = split(term);
+	temp.pop();
+	return temp.join(" ");
+}
+
 function extractPrev(term) {
 	var temp = split(term);
 
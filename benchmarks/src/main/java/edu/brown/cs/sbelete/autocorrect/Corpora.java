@@ -0,0 +1,154 @@
+package edu.brown.cs.sbelete.autocorrect;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Corpora and queries for the benchmarks. A corpus is either
+ * {@link #SYNTHETIC}, generated from a fixed seed, or the path of a text file
+ * read the way Main reads its database.
+ *
+ * @author Simon
+ */
+final class Corpora {
+
+  /** Name of the generated corpus. */
+  static final String SYNTHETIC = "synthetic";
+
+  private static final long SEED = 42;
+  private static final int VOCABULARY = 50000;
+  private static final int TOKENS = 500000;
+  private static final int MAX_SYLLABLES = 4;
+  private static final String[] SYLLABLES = ("ba be bi bo bu ca ce ci co cu "
+    + "da de di do du fa fe fi fo fu ga ge la le li lo lu ma me mi mo mu na "
+    + "ne ni no nu pa pe pi po pu ra re ri ro ru sa se si so su ta te ti to "
+    + "tu tra pre con str ph th sh ch").split(" ");
+  private static final String[] SUFFIXES = {"", "ing", "tion", "ed", "s",
+    "er", "ly", "ness", "able"};
+
+  /**
+   * Not instantiated.
+   */
+  private Corpora() {
+  }
+
+  /**
+   * The words of a corpus, in order, with repeats.
+   *
+   * @param corpus - {@link #SYNTHETIC} or a file path
+   * @return - the washed words
+   * @throws IOException - if the file can't be read
+   */
+  static List<String> words(String corpus) throws IOException {
+    if (SYNTHETIC.equals(corpus)) {
+      return synthetic(VOCABULARY, TOKENS, SEED);
+    }
+
+    List<String> words = new ArrayList<>();
+    try (BufferedReader br = Files.newBufferedReader(Paths.get(corpus),
+      StandardCharsets.UTF_8)) {
+      String line = br.readLine();
+      while (line != null) {
+        words.addAll(Tokenizer.tokens(line));
+        line = br.readLine();
+      }
+    }
+    return words;
+  }
+
+  /**
+   * Generates a corpus whose word frequencies follow Zipf's law, as natural
+   * text roughly does.
+   *
+   * @param vocabulary - number of distinct words
+   * @param tokens - number of words
+   * @param seed - seed of the generator
+   * @return - the words, each distinct word appearing at least once
+   */
+  static List<String> synthetic(int vocabulary, int tokens, long seed) {
+    Random r = new Random(seed);
+    List<String> vocab = new ArrayList<>(vocabulary);
+    Set<String> seen = new HashSet<>();
+
+    while (vocab.size() < vocabulary) {
+      StringBuilder sb = new StringBuilder();
+      int syllables = 1 + r.nextInt(MAX_SYLLABLES);
+      for (int i = 0; i < syllables; i++) {
+        sb.append(SYLLABLES[r.nextInt(SYLLABLES.length)]);
+      }
+      sb.append(SUFFIXES[r.nextInt(SUFFIXES.length)]);
+
+      if (seen.add(sb.toString())) {
+        vocab.add(sb.toString());
+      }
+    }
+
+    // Cumulative weights 1/rank
+    double[] cumulative = new double[vocabulary];
+    double total = 0;
+    for (int i = 0; i < vocabulary; i++) {
+      total += 1.0 / (i + 1);
+      cumulative[i] = total;
+    }
+
+    List<String> words = new ArrayList<>(Math.max(tokens, vocabulary));
+    words.addAll(vocab);
+    while (words.size() < tokens) {
+      int i = Arrays.binarySearch(cumulative, r.nextDouble() * total);
+      if (i < 0) {
+        i = -i - 1;
+      }
+      words.add(vocab.get(Math.min(i, vocabulary - 1)));
+    }
+    return words;
+  }
+
+  /**
+   * Samples (previous word, typed word) pairs from a corpus. The typed word
+   * is a prefix of the real one or has one typo, as while typing.
+   *
+   * @param words - the corpus
+   * @param n - number of queries
+   * @param seed - seed of the sampling
+   * @return - pairs of previous word and typed word
+   */
+  static List<String[]> queries(List<String> words, int n, long seed) {
+    Random r = new Random(seed);
+    List<String[]> queries = new ArrayList<>(n);
+
+    while (queries.size() < n) {
+      int i = 1 + r.nextInt(words.size() - 1);
+      String word = words.get(i);
+      int at = r.nextInt(word.length());
+
+      switch (r.nextInt(4)) {
+        case 0:
+          word = word.substring(0, at + 1);
+          break;
+        case 1:
+          word = word.substring(0, at) + word.substring(at + 1);
+          break;
+        case 2:
+          word = word.substring(0, at) + (char) ('a' + r.nextInt(26))
+            + word.substring(at + 1);
+          break;
+        default:
+          break;
+      }
+
+      if (!word.isEmpty()) {
+        queries.add(new String[] {words.get(i - 1), word});
+      }
+    }
+    return queries;
+  }
+}
@@ -0,0 +1,100 @@
+package edu.brown.cs.sbelete.autocorrect;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Edit distances: {@link Led#led(String)} on pairs of words, and
+ * {@link Autocorrect#suggestLed(String)} for each engine and LED.
+ *
+ * @author Simon
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LedBenchmark {
+
+  private static final int QUERIES = 1024;
+
+  /** {@link Corpora#SYNTHETIC} or a corpus file. */
+  @Param({Corpora.SYNTHETIC})
+  private String corpus;
+
+  /** How words within LED are found. */
+  @Param({"DP", "AUTOMATON", "DELETION_INDEX"})
+  private Autocorrect.Engine engine;
+
+  /** Distance searched. */
+  @Param({"1", "2", "3"})
+  private int led;
+
+  private Autocorrect corrector;
+  private Led[] distances;
+  private String[] typed;
+  private String[] intended;
+  private int next = 0;
+
+  /**
+   * Builds the Autocorrect with the engine and the queries.
+   *
+   * @throws IOException - if the corpus can't be read
+   */
+  @Setup
+  public void setup() throws IOException {
+    List<String> words = Corpora.words(corpus);
+    corrector = new Autocorrect(words, Trie.Layout.ARRAY);
+    if (engine == Autocorrect.Engine.DELETION_INDEX) {
+      corrector.useDeletionIndex(led, DeletionIndex.DEFAULT_PREFIX);
+    } else {
+      corrector.setEngine(engine);
+    }
+    corrector.setOptions(Options.DEFAULT.withLed(led));
+
+    List<String[]> queries = Corpora.queries(words, QUERIES, 3);
+    distances = new Led[QUERIES];
+    typed = new String[QUERIES];
+    intended = new String[QUERIES];
+    for (int i = 0; i < QUERIES; i++) {
+      typed[i] = queries.get(i)[1];
+      intended[i] = queries.get(i)[0];
+      distances[i] = new Led(typed[i]);
+    }
+  }
+
+  /**
+   * Doesn't depend on the engine or LED, which only repeat it.
+   *
+   * @return - the distance between the next pair
+   */
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public int distance() {
+    next = (next + 1) & (QUERIES - 1);
+    return distances[next].led(intended[next]);
+  }
+
+  /**
+   * @return - the words within LED of the next query
+   */
+  @Benchmark
+  public List<String> suggestLed() {
+    next = (next + 1) & (QUERIES - 1);
+    return corrector.suggestLed(typed[next]);
+  }
+}
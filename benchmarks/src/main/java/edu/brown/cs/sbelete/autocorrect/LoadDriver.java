@@ -0,0 +1,331 @@
+package edu.brown.cs.sbelete.autocorrect;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import joptsimple.OptionException;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+
+/**
+ * Replays a keystroke log against the /auto handler of a running GUI from
+ * several threads, then reports latency percentiles and throughput.
+ *
+ * <p>
+ * Each line of the log is the text box after one keystroke, and is posted
+ * the way main.js does: the last space separated word and the one before it.
+ * Each thread posts as a session of its own, as one page would.
+ * With --type the file is a corpus instead, and every prefix of each of its
+ * lines is replayed, as if it were typed.
+ *
+ * @author Simon
+ */
+public final class LoadDriver {
+
+  private static final String USAGE = "Usage: java -cp target/benchmarks.jar "
+    + "edu.brown.cs.sbelete.autocorrect.LoadDriver [--url=url][--threads=num]"
+    + "[--warmup=seconds][--duration=seconds][--type] log";
+
+  private static final int OK = 200;
+  private static final int BUFFER = 4096;
+  private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+  private final URL url;
+  private final List<String> keystrokes;
+  private final long warmup;
+  private final long duration;
+
+  /**
+   * @param url - the /auto handler
+   * @param keystrokes - text box contents to post
+   * @param warmup - nanoseconds before latencies are recorded
+   * @param duration - nanoseconds during which they are
+   */
+  private LoadDriver(URL url, List<String> keystrokes, long warmup,
+    long duration) {
+    this.url = url;
+    this.keystrokes = keystrokes;
+    this.warmup = warmup;
+    this.duration = duration;
+  }
+
+  /**
+   * Runs the driver.
+   *
+   * @param args - command line arguments
+   * @throws Exception - if the log can't be read or a thread is interrupted
+   */
+  public static void main(String[] args) throws Exception {
+    OptionParser parser = new OptionParser();
+    OptionSpec<String> file = parser.nonOptions().ofType(String.class);
+    OptionSpec<String> url = parser.accepts("url", "the /auto handler")
+      .withRequiredArg().ofType(String.class)
+      .defaultsTo("http://localhost:4567/auto");
+    OptionSpec<Integer> threads = parser.accepts("threads", "client threads")
+      .withRequiredArg().ofType(Integer.class)
+      .defaultsTo(Runtime.getRuntime().availableProcessors());
+    OptionSpec<Integer> warmup = parser.accepts("warmup",
+      "seconds before recording").withRequiredArg().ofType(Integer.class)
+      .defaultsTo(5);
+    OptionSpec<Integer> duration = parser.accepts("duration",
+      "seconds recorded").withRequiredArg().ofType(Integer.class)
+      .defaultsTo(30);
+    parser.accepts("type", "replay every prefix of each line of a corpus");
+
+    OptionSet options;
+    try {
+      options = parser.parse(args);
+    } catch (OptionException e) {
+      System.out.println("ERROR: " + USAGE);
+      return;
+    }
+    if (options.valuesOf(file).size() != 1) {
+      System.out.println("ERROR: " + USAGE);
+      return;
+    }
+
+    List<String> lines = Files.readAllLines(Paths.get(options.valueOf(file)),
+      StandardCharsets.UTF_8);
+    List<String> keystrokes = lines;
+    if (options.has("type")) {
+      keystrokes = type(lines);
+    }
+    if (keystrokes.isEmpty()) {
+      System.out.println("ERROR: No keystrokes in " + options.valueOf(file));
+      return;
+    }
+
+    new LoadDriver(new URL(options.valueOf(url)), keystrokes,
+      TimeUnit.SECONDS.toNanos(options.valueOf(warmup)),
+      TimeUnit.SECONDS.toNanos(options.valueOf(duration))).run(options
+        .valueOf(threads));
+  }
+
+  /**
+   * Every prefix of each line, as the text box reads while it is typed.
+   *
+   * @param lines - text to type
+   * @return - the text box after each keystroke
+   */
+  static List<String> type(List<String> lines) {
+    List<String> keystrokes = new ArrayList<>();
+    for (String line : lines) {
+      String text = line.trim();
+      for (int i = 1; i <= text.length(); i++) {
+        keystrokes.add(text.substring(0, i));
+      }
+    }
+    return keystrokes;
+  }
+
+  /**
+   * Replays the log from several threads, each starting at its own place.
+   *
+   * @param count - number of threads
+   * @throws InterruptedException - if interrupted while waiting for them
+   */
+  private void run(int count) throws InterruptedException {
+    Client[] clients = new Client[count];
+    Thread[] threads = new Thread[count];
+    long start = System.nanoTime();
+
+    for (int i = 0; i < count; i++) {
+      clients[i] = new Client((int) ((long) keystrokes.size() * i / count),
+        start);
+      threads[i] = new Thread(clients[i], "load-" + i);
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    long requests = 0;
+    long errors = 0;
+    for (Client client : clients) {
+      requests += client.count;
+      errors += client.errors;
+    }
+
+    long[] latencies = new long[(int) requests];
+    int at = 0;
+    for (Client client : clients) {
+      System.arraycopy(client.latencies, 0, latencies, at, client.count);
+      at += client.count;
+    }
+    Arrays.sort(latencies);
+
+    double seconds = duration / 1e9;
+    System.out.printf("%d threads, %d requests in %.1f s, %d errors%n", count,
+      requests, seconds, errors);
+    System.out.printf("throughput: %.1f requests/s%n", requests / seconds);
+    for (double p : PERCENTILES) {
+      System.out.printf("p%s: %.3f ms%n", format(p), percentile(latencies, p)
+        / 1e6);
+    }
+    if (latencies.length > 0) {
+      System.out.printf("max: %.3f ms%n", latencies[latencies.length - 1]
+        / 1e6);
+    }
+  }
+
+  /**
+   * @param p - a percentile
+   * @return - it without a trailing .0
+   */
+  private static String format(double p) {
+    if (p == Math.rint(p)) {
+      return Long.toString((long) p);
+    }
+    return Double.toString(p);
+  }
+
+  /**
+   * Nearest-rank percentile.
+   *
+   * @param sorted - latencies in ascending order
+   * @param p - percentile wanted
+   * @return - the latency (0 if there are none)
+   */
+  static long percentile(long[] sorted, double p) {
+    if (sorted.length == 0) {
+      return 0;
+    }
+    int rank = (int) Math.ceil(p / 100 * sorted.length);
+    return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+  }
+
+  /**
+   * Builds the form main.js posts for the text box contents.
+   *
+   * @param text - the text box
+   * @param session - the page posting it
+   * @return - the url encoded form
+   * @throws UnsupportedEncodingException - never, UTF-8 is always supported
+   */
+  static String form(String text, String session)
+    throws UnsupportedEncodingException {
+    String[] words = text.split(" ", -1);
+    String word = words[words.length - 1];
+    String prev = "";
+    if (words.length > 1) {
+      prev = words[words.length - 2];
+    }
+
+    return "word=" + URLEncoder.encode(word, "UTF-8") + "&prev="
+      + URLEncoder.encode(prev, "UTF-8") + "&session="
+      + URLEncoder.encode(session, "UTF-8") + "&on=true";
+  }
+
+  /**
+   * One thread of requests, recording the latency of each after the warmup.
+   *
+   * @author Simon
+   */
+  private final class Client implements Runnable {
+
+    private final int first;
+    private final long start;
+    private final String session;
+    private long[] latencies = new long[BUFFER];
+    private int count = 0;
+    private long errors = 0;
+
+    /**
+     * @param first - first keystroke replayed
+     * @param start - when the run started
+     */
+    Client(int first, long start) {
+      this.first = first;
+      this.start = start;
+      session = "load" + first;
+    }
+
+    @Override
+    public void run() {
+      byte[] buffer = new byte[BUFFER];
+      long recordFrom = start + warmup;
+      long end = recordFrom + duration;
+      int i = first;
+
+      while (true) {
+        long before = System.nanoTime();
+        if (before >= end) {
+          return;
+        }
+
+        boolean ok = post(keystrokes.get(i), buffer);
+        long after = System.nanoTime();
+
+        if (before >= recordFrom && after <= end) {
+          if (!ok) {
+            errors++;
+          } else {
+            if (count == latencies.length) {
+              latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = after - before;
+          }
+        }
+
+        i = (i + 1) % keystrokes.size();
+      }
+    }
+
+    /**
+     * Posts one keystroke and reads the whole reply, so the connection is
+     * kept alive.
+     *
+     * @param text - the text box
+     * @param buffer - scratch space for the reply
+     * @return - true if the handler answered 200
+     */
+    private boolean post(String text, byte[] buffer) {
+      HttpURLConnection connection = null;
+      try {
+        byte[] body = form(text, session).getBytes(StandardCharsets.UTF_8);
+        connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type",
+          "application/x-www-form-urlencoded");
+        connection.setFixedLengthStreamingMode(body.length);
+
+        try (OutputStream out = connection.getOutputStream()) {
+          out.write(body);
+        }
+
+        int status = connection.getResponseCode();
+        InputStream in = connection.getErrorStream();
+        if (status == OK) {
+          in = connection.getInputStream();
+        }
+        if (in != null) {
+          try (InputStream reply = in) {
+            while (reply.read(buffer) >= 0) {
+              continue;
+            }
+          }
+        }
+        return status == OK;
+      } catch (IOException e) {
+        if (connection != null) {
+          connection.disconnect();
+        }
+        return false;
+      }
+    }
+  }
+}
@@ -0,0 +1,116 @@
+package edu.brown.cs.sbelete.autocorrect;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Suggestions as /auto makes them: completions, splits, and whole queries
+ * under each ranking mode, both fully sorted and cut to the top 5.
+ *
+ * @author Simon
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SuggestBenchmark {
+
+  private static final int QUERIES = 1024;
+  private static final int SUGGESTIONS = 5;
+
+  /** {@link Corpora#SYNTHETIC} or a corpus file. */
+  @Param({Corpora.SYNTHETIC})
+  private String corpus;
+
+  /** Ranking: "frequency" or "smart". */
+  @Param({"frequency", "smart"})
+  private String mode;
+
+  /** Distance searched by whole queries. */
+  @Param({"2"})
+  private int led;
+
+  private Autocorrect corrector;
+  private Options options;
+  private String[] prev;
+  private String[] typed;
+  private int next = 0;
+
+  /**
+   * Builds the Autocorrect with every kind of suggestion on.
+   *
+   * @throws IOException - if the corpus can't be read
+   */
+  @Setup
+  public void setup() throws IOException {
+    List<String> words = Corpora.words(corpus);
+    corrector = new Autocorrect(words, Trie.Layout.ARRAY);
+    options = Options.DEFAULT.withLed(led).withAutocomplete(true)
+      .withWhitespace(true).withSmart("smart".equals(mode));
+    corrector.setOptions(options);
+
+    List<String[]> queries = Corpora.queries(words, QUERIES, 4);
+    prev = new String[QUERIES];
+    typed = new String[QUERIES];
+    for (int i = 0; i < QUERIES; i++) {
+      prev[i] = queries.get(i)[0];
+      typed[i] = queries.get(i)[1];
+    }
+  }
+
+  /**
+   * Doesn't depend on the mode, which only repeats it.
+   *
+   * @return - every word starting with the next query
+   */
+  @Benchmark
+  public List<String> autocomplete() {
+    next = (next + 1) & (QUERIES - 1);
+    return corrector.autocomplete(typed[next]);
+  }
+
+  /**
+   * Doesn't depend on the mode, which only repeats it.
+   *
+   * @return - the splits of the next query into two words
+   */
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public List<String> whitespace() {
+    next = (next + 1) & (QUERIES - 1);
+    return corrector.whitespace(typed[next]);
+  }
+
+  /**
+   * @return - every suggestion for the next query, sorted
+   */
+  @Benchmark
+  public List<String> suggest() {
+    next = (next + 1) & (QUERIES - 1);
+    return corrector.suggest(typed[next], prev[next]);
+  }
+
+  /**
+   * @return - the best suggestions for the next query, as /auto asks
+   */
+  @Benchmark
+  public List<String> suggestTop() {
+    next = (next + 1) & (QUERIES - 1);
+    return corrector.suggest(typed[next], prev[next], SUGGESTIONS, options);
+  }
+}
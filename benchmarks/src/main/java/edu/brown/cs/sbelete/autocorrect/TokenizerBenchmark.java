@@ -0,0 +1,139 @@
+package edu.brown.cs.sbelete.autocorrect;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Splitting lines into words: the regular expressions washLine used to run,
+ * and the {@link Tokenizer} collecting strings or only handing out its
+ * buffer. Run with "-prof gc" to compare the bytes allocated per line.
+ *
+ * @author Simon
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenizerBenchmark {
+
+  private static final int LINES = 1024;
+  private static final int WORDS_PER_LINE = 12;
+  private static final String REGEX1 = "[^A-Za-z']+";
+  private static final String REGEX2 = "[^A-Za-z]+";
+
+  /** {@link Corpora#SYNTHETIC} or a corpus file. */
+  @Param({Corpora.SYNTHETIC})
+  private String corpus;
+
+  private String[] lines;
+  private int next = 0;
+  private int letters = 0;
+  private final Tokenizer tokenizer = new Tokenizer((chars, length) -> {
+    letters += length;
+  });
+
+  /**
+   * Reads lines of the corpus, or makes lines of generated words with some
+   * capitals, apostrophes and punctuation.
+   *
+   * @throws IOException - if the corpus can't be read
+   */
+  @Setup
+  public void setup() throws IOException {
+    lines = new String[LINES];
+
+    if (!Corpora.SYNTHETIC.equals(corpus)) {
+      List<String> read = new ArrayList<>();
+      for (String line : Files.readAllLines(Paths.get(corpus),
+        StandardCharsets.UTF_8)) {
+        if (!line.trim().isEmpty()) {
+          read.add(line);
+        }
+      }
+      for (int i = 0; i < LINES; i++) {
+        lines[i] = read.get(i % read.size());
+      }
+      return;
+    }
+
+    List<String> words = Corpora.words(corpus);
+    Random r = new Random(3);
+    for (int i = 0; i < LINES; i++) {
+      StringBuilder line = new StringBuilder();
+      for (int j = 0; j < WORDS_PER_LINE; j++) {
+        String word = words.get(r.nextInt(words.size()));
+        switch (r.nextInt(8)) {
+          case 0:
+            word = Character.toUpperCase(word.charAt(0)) + word.substring(1);
+            break;
+          case 1:
+            word = word + "'s";
+            break;
+          case 2:
+            word = word + ",";
+            break;
+          default:
+            break;
+        }
+        line.append(word).append(' ');
+      }
+      lines[i] = line.append('.').toString();
+    }
+  }
+
+  /**
+   * @return - the words of the next line, as washLine used to find them
+   */
+  @Benchmark
+  public List<String> regex() {
+    next = (next + 1) & (LINES - 1);
+    List<String> parse = new ArrayList<String>();
+    String[] keepTogether = lines[next].toLowerCase().trim()
+      .replaceAll(REGEX1, " ").split(" ");
+    for (String w : keepTogether) {
+      parse.add(w.trim().replaceAll(REGEX2, " ").trim());
+    }
+    return parse;
+  }
+
+  /**
+   * @return - the words of the next line
+   */
+  @Benchmark
+  public List<String> tokens() {
+    next = (next + 1) & (LINES - 1);
+    return Tokenizer.tokens(lines[next]);
+  }
+
+  /**
+   * @return - the number of letters in the words of the next line, without
+   *         making a string of any
+   */
+  @Benchmark
+  public int sink() {
+    next = (next + 1) & (LINES - 1);
+    letters = 0;
+    tokenizer.accept(lines[next]);
+    return letters;
+  }
+}
@@ -0,0 +1,112 @@
+package edu.brown.cs.sbelete.autocorrect;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Trie building and lookups, for each node layout.
+ *
+ * @author Simon
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TrieBenchmark {
+
+  private static final int BATCH = 10000;
+  private static final int LOOKUPS = 4096;
+
+  /** {@link Corpora#SYNTHETIC} or a corpus file. */
+  @Param({Corpora.SYNTHETIC})
+  private String corpus;
+
+  /** Node layout. */
+  @Param({"HASH", "ARRAY"})
+  private Trie.Layout layout;
+
+  private List<String> batch;
+  private Trie trie;
+  private String[] lookups;
+  private String[] prefixes;
+  private int next = 0;
+
+  /**
+   * Builds the trie and the words looked up, half of them absent.
+   *
+   * @throws IOException - if the corpus can't be read
+   */
+  @Setup
+  public void setup() throws IOException {
+    List<String> distinct = new ArrayList<>(new LinkedHashSet<>(Corpora
+      .words(corpus)));
+    trie = new Trie(distinct, layout);
+
+    Collections.shuffle(distinct, new Random(1));
+    batch = distinct.subList(0, Math.min(BATCH, distinct.size()));
+
+    Random r = new Random(2);
+    lookups = new String[LOOKUPS];
+    prefixes = new String[LOOKUPS];
+    for (int i = 0; i < LOOKUPS; i++) {
+      String word = distinct.get(r.nextInt(distinct.size()));
+      if (i % 2 == 0) {
+        lookups[i] = word;
+      } else {
+        lookups[i] = word + (char) ('a' + r.nextInt(26));
+      }
+      prefixes[i] = word.substring(0, 1 + r.nextInt(word.length()));
+    }
+  }
+
+  /**
+   * @return - a trie of a batch of words, added one at a time
+   */
+  @Benchmark
+  @OperationsPerInvocation(BATCH)
+  public Trie add() {
+    Trie fresh = new Trie(Collections.<String>emptyList(), layout);
+    for (String word : batch) {
+      fresh.add(word);
+    }
+    return fresh;
+  }
+
+  /**
+   * @return - whether the next word is in the trie
+   */
+  @Benchmark
+  public boolean contains() {
+    next = (next + 1) & (LOOKUPS - 1);
+    return trie.contains(lookups[next]);
+  }
+
+  /**
+   * @return - the node of the next prefix
+   */
+  @Benchmark
+  public Object getNode() {
+    next = (next + 1) & (LOOKUPS - 1);
+    return trie.getNode(prefixes[next]);
+  }
+}